@@ -1,35 +1,102 @@
 import java.io.IOException;
 import java.io.File;
+import java.util.Arrays;
 
 import src.DomainTree;
 import src.CacheServer;
 import src.Resolver;
 import src.RequestType;
+import src.LogSink;
+import src.TcpServer;
+import src.UdpServer;
+import src.ZoneSnapshot;
 
 import gui.MainWindow;
 
+import cli.LoadDriver;
+
 public class Main
 {
+    private static final int DefaultPort = 8053;
+
     public static void main(String[] args)
 	throws IOException
     {
-	new MainWindow();
-	/*	String[] dirs = {"log/server", "log/resolver"};
+	if(args.length == 0)
+	{
+	    new MainWindow();
+	    return;
+	}
+
+	String[] rest = Arrays.copyOfRange(args, 1, args.length);
+	switch(args[0])
+	{
+	    case "--headless":
+		// No window: drive a workload and print a latency report
+		LoadDriver.main(rest);
+		break;
+
+	    case "--serve":
+		if(rest.length < 2 || rest.length > 3)
+		{
+		    System.err.println("usage: --serve <domain-db> <rr-db> [port]");
+		    System.exit(2);
+		}
+		serve(rest[0], rest[1], (rest.length == 3) ? Integer.parseInt(rest[2]) : DefaultPort);
+		return;
+
+	    case "--resolve":
+		if(rest.length != 3)
+		{
+		    System.err.println("usage: --resolve <domain-db> <rr-db> <name>");
+		    System.exit(2);
+		}
+		resolve(rest[0], rest[1], rest[2]);
+		break;
+
+	    default:
+		System.err.println("usage: [--headless <domain-db> <rr-db> [options] | --serve <domain-db> <rr-db> [port]\n"
+				   + "        | --resolve <domain-db> <rr-db> <name>]");
+		System.exit(2);
+	}
+	System.exit(0);
+    }
+
+    // Answers DNS queries over UDP and TCP until the process is killed
+    private static void serve(String domainDb, String recordDb, int port)
+	throws IOException
+    {
+	LogSink.setEnabled(false);
+	DomainTree domainSpace = ZoneSnapshot.loadOrBuild(domainDb, recordDb, recordDb + ".snap");
+
+	CacheServer cacheServer = new CacheServer(domainSpace);
+	cacheServer.setTtlBounds(CacheServer.ZeroTtlZoneFloor, CacheServer.DefaultMaximumTtl);
+	UdpServer   udp         = new UdpServer(cacheServer, port);
+	TcpServer   tcp         = new TcpServer(cacheServer, port);
+	System.out.printf("Serving DNS on udp %s and tcp %s%n",
+			  udp.getLocalAddress(), tcp.getLocalAddress());
+	udp.start();
+	tcp.run();
+    }
+
+    private static void resolve(String domainDb, String recordDb, String name)
+	throws IOException
+    {
+	String[] dirs = {"log/server", "log/resolver"};
 	buildFilesystemStructure(dirs);
-	    
-	DomainTree domainSpace = DomainTree.fromFile(args[0]);
-	domainSpace.loadResourceRecords(args[1]);
-	
+
+	DomainTree domainSpace = DomainTree.fromFile(domainDb);
+	domainSpace.loadResourceRecords(recordDb);
+
 	CacheServer cacheServer = new CacheServer(domainSpace);
 	Resolver resolver       = new Resolver(cacheServer);
 
-	String ipAddr = resolver.askAndWait(args[2], RequestType.IPv4);
+	String ipAddr = resolver.askAndWait(name, RequestType.IPv4);
+	resolver.close();
+	cacheServer.close();
 
-	// Cache test
-	// String ipAddr2 = resolver.askAndWait(args[2], RequestType.IPv4);
-	
 	System.out.printf("'%s' corresponding IPv4 address is:  %s\n",
-	args[2], ipAddr); */
+			  name, ipAddr);
     }
 
     private static void buildFilesystemStructure(String[] dirs)
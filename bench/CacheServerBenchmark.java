@@ -0,0 +1,126 @@
+package bench;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import src.CacheServer;
+import src.DomainTree;
+import src.ExecutionStrategy;
+import src.LogSink;
+import src.RRset;
+import src.RequestType;
+import src.ResourceRecord;
+import src.TtlCache;
+
+// CacheServer.query() end to end, answered from the cache or by a full walk
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheServerBenchmark
+{
+    @Param({"1000", "100000"})
+    public int zoneSize;
+
+    @Param({"16"})
+    public int tlds;
+
+    private ZoneGenerator     zone;
+    private ExecutionStrategy hitWorkers;
+    private CacheServer       hitServer;
+    private CacheServer       missServer;
+    private String[]          names;
+    private int               next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+	LogSink.setEnabled(false);
+
+	Path directory = Files.createTempDirectory("dotoip-bench");
+	zone = ZoneGenerator.generate(directory, zoneSize, tlds);
+
+	DomainTree tree = DomainTree.fromFile(zone.domainDb.toString());
+	tree.loadResourceRecords(zone.recordDb.toString());
+	names = zone.names;
+
+	hitWorkers = ExecutionStrategy.defaultStrategy();
+	hitServer  = new CacheServer(tree, hitWorkers,
+				     2 * zoneSize, TtlCache.Policy.LRU);
+	hitServer.setTtlBounds(3600, 3600);  // outlive the whole trial
+	for(String name : names)
+	    hitServer.getOrWait(hitServer.query(name, RequestType.IPv4));
+	hitServer.setRotation(RRset.Rotation.ROUND_ROBIN);
+
+	// A zero TTL is never cached, so every query walks from the root
+	missServer = new CacheServer(tree);
+	missServer.setTtlBounds(0, 0);
+	missServer.setNegativeTtl(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreLogging()
+    {
+	LogSink.setEnabled(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteZone() throws IOException
+    {
+	zone.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopWorkers()
+    {
+	hitWorkers.shutdown();
+	missServer.close();
+    }
+
+    private String nextName()
+    {
+	int index = next;
+	next = (index + 1 == names.length) ? 0 : index + 1;
+	return names[index];
+    }
+
+    @Benchmark
+    public ResourceRecord cacheHit()
+    {
+	return hitServer.getOrWait(hitServer.query(nextName(), RequestType.IPv4));
+    }
+
+    // Whole RRset from the cache, round-robin rotated
+    @Benchmark
+    public List<ResourceRecord> rrsetHit()
+    {
+	return hitServer.queryRRsetAsync(nextName(), RequestType.IPv4).join();
+    }
+
+    @Benchmark
+    public ResourceRecord cacheMiss()
+    {
+	return missServer.getOrWait(missServer.query(nextName(), RequestType.IPv4));
+    }
+}
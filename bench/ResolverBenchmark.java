@@ -0,0 +1,103 @@
+package bench;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import src.CacheServer;
+import src.DomainTree;
+import src.LogSink;
+import src.RequestType;
+import src.Resolver;
+
+// Resolver.askAndWait() through the cache server, with the cache on or off
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverBenchmark
+{
+    @Param({"1000", "100000"})
+    public int zoneSize;
+
+    @Param({"16"})
+    public int tlds;
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private ZoneGenerator zone;
+    private CacheServer   server;
+    private Resolver      resolver;
+    private String[]      names;
+    private int           next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+	LogSink.setEnabled(false);
+
+	Path directory = Files.createTempDirectory("dotoip-bench");
+	zone = ZoneGenerator.generate(directory, zoneSize, tlds);
+
+	DomainTree tree = DomainTree.fromFile(zone.domainDb.toString());
+	tree.loadResourceRecords(zone.recordDb.toString());
+	names = zone.names;
+
+	server = new CacheServer(tree);
+	if(cached)  // the generated zone has TTL 0, like the samples
+	    server.setTtlBounds(CacheServer.ZeroTtlZoneFloor, CacheServer.DefaultMaximumTtl);
+	else
+	{
+	    server.setTtlBounds(0, 0);
+	    server.setNegativeTtl(0);
+	}
+	resolver = new Resolver(server);
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreLogging()
+    {
+	LogSink.setEnabled(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteZone() throws IOException
+    {
+	zone.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopWorkers()
+    {
+	resolver.close();
+	server.close();
+    }
+
+    @Benchmark
+    public String askAndWait()
+    {
+	int index = next;
+	next = (index + 1 == names.length) ? 0 : index + 1;
+	return resolver.askAndWait(names[index], RequestType.IPv4);
+    }
+}
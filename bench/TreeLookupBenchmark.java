@@ -0,0 +1,117 @@
+package bench;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import src.CompiledZone;
+import src.DomainTree;
+import src.Message;
+import src.ResourceRecord;
+
+// Single steps of a walk: finding a node and asking it a question
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeLookupBenchmark
+{
+    @Param({"1000", "100000"})
+    public int zoneSize;
+
+    @Param({"16"})
+    public int tlds;
+
+    private ZoneGenerator zone;
+    private DomainTree    tree;
+    private String[]      names;
+    private DomainTree[]  hosts;   // node holding the A record of names[i]
+    private CompiledZone  compiled;
+    private int[]         compiledHosts;
+    private CompiledZone.Result result = new CompiledZone.Result();
+    private int           next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+	Path directory = Files.createTempDirectory("dotoip-bench");
+	zone = ZoneGenerator.generate(directory, zoneSize, tlds);
+
+	tree = DomainTree.fromFile(zone.domainDb.toString());
+	tree.loadResourceRecords(zone.recordDb.toString());
+
+	names = zone.names;
+	hosts = new DomainTree[names.length];
+	for(int i = 0; i < names.length; i++)
+	    hosts[i] = tree.getSubtree(names[i]);
+
+	compiled      = CompiledZone.compile(tree);
+	compiledHosts = new int[names.length];
+	for(int i = 0; i < names.length; i++)
+	    compiledHosts[i] = compiled.findNode(names[i]);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteZone() throws IOException
+    {
+	zone.delete();
+    }
+
+    private int nextIndex()
+    {
+	int index = next;
+	next = (index + 1 == names.length) ? 0 : index + 1;
+	return index;
+    }
+
+    @Benchmark
+    public DomainTree getSubtree()
+    {
+	return tree.getSubtree(names[nextIndex()]);
+    }
+
+    @Benchmark
+    public Message query()
+    {
+	int index = nextIndex();
+
+	Message message = new Message();
+	message.header.method = Message.QueryMethod.ITERATIVE;
+	message.question.name = names[index];
+	message.question.type = ResourceRecord.Type.A;
+
+	return hosts[index].query(message);
+    }
+
+    @Benchmark
+    public int compiledFindNode()
+    {
+	return compiled.findNode(names[nextIndex()]);
+    }
+
+    @Benchmark
+    public CompiledZone.Result compiledQuery()
+    {
+	int index = nextIndex();
+	return compiled.query(compiledHosts[index], names[index], ResourceRecord.Type.A, result);
+    }
+}
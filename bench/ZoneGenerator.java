@@ -0,0 +1,72 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Writes a synthetic zone in the domain-db / rr-db text formats.
+// Names look like tldN.nameM.www; every name gets the same delegation chain
+// as the sample databases (root -> tld -> second level -> host) and one A
+// record. Generation is seeded, so a given size always yields the same zone
+// and benchmark runs stay comparable.
+public class ZoneGenerator
+{
+    public Path     directory;
+    public Path     domainDb;
+    public Path     recordDb;
+    public String[] names;     // owner names of the A records, e.g. ".tld3.name17.www"
+
+    private static final long Seed = 0x5eed_d0d0L;
+
+    public static ZoneGenerator generate(Path directory, int size, int tlds)
+	throws IOException
+    {
+	ZoneGenerator zone = new ZoneGenerator();
+	zone.directory = directory;
+	zone.domainDb  = directory.resolve("domain-db-" + size + ".dat");
+	zone.recordDb  = directory.resolve("rr-db-" + size + ".dat");
+	zone.names     = new String[size];
+
+	Random random = new Random(Seed);
+	try(BufferedWriter domains = Files.newBufferedWriter(zone.domainDb, StandardCharsets.UTF_8);
+	    BufferedWriter records = Files.newBufferedWriter(zone.recordDb, StandardCharsets.UTF_8))
+	{
+	    for(int i = 0; i < size; i++)
+	    {
+		String tld    = "tld" + (i % tlds);
+		String second = "name" + i;
+		String owner  = "." + tld + "." + second + ".www";
+		zone.names[i] = owner;
+
+		domains.write(tld + "." + second + ".www\n");
+
+		records.write(".\t" + owner + " 0 NS IN ." + tld + "\n");
+		records.write("." + tld + "\t0 NS IN ." + tld + "." + second + "\n");
+		records.write("." + tld + "." + second + "\t0 NS IN " + owner + "\n");
+		records.write(owner + "\t0 A IN 10." + random.nextInt(256) + "."
+			      + random.nextInt(256) + "." + random.nextInt(256) + "\n");
+		records.write("\n");
+	    }
+	}
+	return zone;
+    }
+
+    // Removes the directory the zone was written to, with everything left
+    // in it (the databases, and any snapshot made while loading them)
+    public void delete() throws IOException
+    {
+	try(Stream<Path> paths = Files.walk(directory))
+	{
+	    Path[] deepestFirst = paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new);
+	    for(Path path : deepestFirst)
+		Files.deleteIfExists(path);
+	}
+    }
+}
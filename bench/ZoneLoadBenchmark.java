@@ -0,0 +1,76 @@
+package bench;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import src.DomainTree;
+
+// Cost of building a tree from the text databases
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ZoneLoadBenchmark
+{
+    @Param({"1000", "100000"})
+    public int zoneSize;
+
+    @Param({"16"})
+    public int tlds;
+
+    private ZoneGenerator zone;
+    private DomainTree    tree;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException
+    {
+	Path directory = Files.createTempDirectory("dotoip-bench");
+	zone = ZoneGenerator.generate(directory, zoneSize, tlds);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteZone() throws IOException
+    {
+	zone.delete();
+    }
+
+    // loadResourceRecords() fills a tree in place, so each shot gets a fresh one
+    @Setup(Level.Invocation)
+    public void freshTree() throws IOException
+    {
+	tree = DomainTree.fromFile(zone.domainDb.toString());
+    }
+
+    @Benchmark
+    public DomainTree fromFile() throws IOException
+    {
+	return DomainTree.fromFile(zone.domainDb.toString());
+    }
+
+    @Benchmark
+    public DomainTree loadResourceRecords() throws IOException
+    {
+	tree.loadResourceRecords(zone.recordDb.toString());
+	return tree;
+    }
+}
@@ -0,0 +1,74 @@
+package cli;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+// Concurrent latency histogram in nanoseconds with log-linear buckets:
+// exact below 64, then 32 buckets per power of two, so any reported
+// percentile is within about 3% of the true value. Recording is one
+// atomic increment and never allocates.
+public class LatencyHistogram
+{
+    private static final int SubBuckets = 32;
+    private static final int Linear     = 2 * SubBuckets;  // values below this get their own bucket
+    private static final int Buckets    = SubBuckets * 60 + Linear;
+
+    private AtomicLongArray counts = new AtomicLongArray(Buckets);
+    private LongAccumulator maximum = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos)
+    {
+	if(nanos < 0)
+	    nanos = 0;
+	counts.incrementAndGet(bucketOf(nanos));
+	maximum.accumulate(nanos);
+    }
+
+    public long getCount()
+    {
+	long count = 0;
+	for(int i = 0; i < Buckets; i++)
+	    count += counts.get(i);
+	return count;
+    }
+
+    public long getMaximum()
+    {
+	return maximum.get();
+    }
+
+    // Smallest recorded latency that at least 'fraction' of all samples
+    // do not exceed, e.g. 0.99 for p99
+    public long percentile(double fraction)
+    {
+	long total = getCount();
+	if(total == 0)
+	    return 0;
+	long rank = Math.max(1, (long) Math.ceil(fraction * total));
+	long seen = 0;
+	for(int i = 0; i < Buckets; i++)
+	{
+	    seen += counts.get(i);
+	    if(seen >= rank)
+		return Math.min(highestValueIn(i), getMaximum());
+	}
+	return getMaximum();
+    }
+
+    private static int bucketOf(long value)
+    {
+	if(value < Linear)
+	    return (int) value;
+	int shift = 63 - Long.numberOfLeadingZeros(value) - 5;  // value >>> shift in [32, 64)
+	return shift * SubBuckets + (int) (value >>> shift);
+    }
+
+    private static long highestValueIn(int bucket)
+    {
+	if(bucket < Linear)
+	    return bucket;
+	int  shift = bucket / SubBuckets - 1;
+	long start = (long) (bucket % SubBuckets + SubBuckets) << shift;
+	return start + (1L << shift) - 1;
+    }
+}
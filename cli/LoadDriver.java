@@ -0,0 +1,285 @@
+package cli;
+
+import java.io.IOException;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import src.CacheServer;
+import src.DomainTree;
+import src.ExecutionStrategy;
+import src.LogSink;
+import src.Resolver;
+import src.ZoneSnapshot;
+
+// Headless load run: loads a zone, sends a workload through a Resolver and
+// reports throughput and latency percentiles. Questions that fail and
+// questions answered "Not found" are counted apart, and the cache figures
+// cover the measured requests only, not the warmup.
+//
+//   --workload FILE       replay questions from FILE (see Workload.fromFile)
+//   --zipf S              draw names with Zipf exponent S (default: uniform)
+//   --seed N              seed of the Zipf popularity order
+//   --rate QPS            open loop: issue at a fixed rate; latency counts
+//                         from the scheduled start, so stalls are not hidden
+//   --concurrency N       closed loop: N clients, each waits for its answer
+//                         (the default, with N = 16)
+//   --requests N          total questions (default 100000)
+//   --warmup N            questions sent before measuring (default 10000)
+//   --strategy S          pool | virtual | threads
+//   --min-ttl N           floor on cached TTLs, in seconds (default 30, as the
+//                         sample zones ship TTL 0; 0 honours record TTLs)
+//   --log                 keep the lookup logs (off by default)
+public class LoadDriver
+{
+    private String  domainDb;
+    private String  recordDb;
+    private String  workloadFile;
+    private double  zipfExponent;
+    private long    seed         = 1;
+    private double  rate;
+    private int     concurrency  = 16;
+    private long    requests     = 100000;
+    private long    warmup       = 10000;
+    private String  strategy     = "pool";
+    private int     minimumTtl   = CacheServer.ZeroTtlZoneFloor;
+    private boolean log;
+
+    public static void main(String[] args) throws IOException
+    {
+	LoadDriver driver;
+	try
+	{
+	    driver = parse(args);
+	}
+	catch(IllegalArgumentException iae)
+	{
+	    System.err.println(iae.getMessage());
+	    System.err.println("usage: --headless <domain-db> <rr-db> [--workload FILE | --zipf S] [--seed N]\n"
+			       + "                  [--rate QPS | --concurrency N] [--requests N] [--warmup N]\n"
+			       + "                  [--strategy pool|virtual|threads] [--min-ttl N] [--log]");
+	    System.exit(2);
+	    return;
+	}
+	driver.run();
+    }
+
+    private static LoadDriver parse(String[] args)
+    {
+	if(args.length < 2)
+	    throw new IllegalArgumentException("Missing the domain and record databases");
+
+	LoadDriver driver = new LoadDriver();
+	driver.domainDb = args[0];
+	driver.recordDb = args[1];
+	for(int i = 2; i < args.length; i++)
+	{
+	    String option = args[i];
+	    if(option.equals("--log"))
+	    {
+		driver.log = true;
+		continue;
+	    }
+	    if(i + 1 == args.length)
+		throw new IllegalArgumentException("Missing value for " + option);
+	    String value = args[++i];
+	    try
+	    {
+		switch(option)
+		{
+		    case "--workload":    driver.workloadFile = value; break;
+		    case "--zipf":        driver.zipfExponent = Double.parseDouble(value); break;
+		    case "--seed":        driver.seed         = Long.parseLong(value); break;
+		    case "--rate":        driver.rate         = Double.parseDouble(value); break;
+		    case "--concurrency": driver.concurrency  = Integer.parseInt(value); break;
+		    case "--requests":    driver.requests     = Long.parseLong(value); break;
+		    case "--warmup":      driver.warmup       = Long.parseLong(value); break;
+		    case "--strategy":    driver.strategy     = value; break;
+		    case "--min-ttl":     driver.minimumTtl   = Integer.parseInt(value); break;
+		    default:
+			throw new IllegalArgumentException("Unknown option " + option);
+		}
+	    }
+	    catch(NumberFormatException nfe)
+	    {
+		throw new IllegalArgumentException("Bad value '" + value + "' for " + option);
+	    }
+	}
+	if(driver.concurrency < 1 || driver.requests < 1 || driver.warmup < 0 ||
+	   driver.minimumTtl < 0)
+	    throw new IllegalArgumentException("Counts must be positive");
+	return driver;
+    }
+
+    private ExecutionStrategy executionStrategy()
+    {
+	switch(strategy)
+	{
+	    case "pool":    return ExecutionStrategy.defaultStrategy();
+	    case "virtual": return ExecutionStrategy.virtualThreads();
+	    case "threads": return ExecutionStrategy.threadPerTask();
+	    default:
+		throw new IllegalArgumentException("Unknown strategy " + strategy);
+	}
+    }
+
+    private void run() throws IOException
+    {
+	LogSink.setEnabled(log);
+
+	long loadStart = System.nanoTime();
+	DomainTree tree = ZoneSnapshot.loadOrBuild(domainDb, recordDb, recordDb + ".snap");
+	System.out.printf("zone        loaded in %.3f s%n", seconds(System.nanoTime() - loadStart));
+
+	Workload workload;
+	if(workloadFile != null)
+	    workload = Workload.fromFile(workloadFile);
+	else if(zipfExponent > 0)
+	    workload = Workload.zipf(tree, zipfExponent, seed);
+	else
+	    workload = Workload.uniform(tree);
+	System.out.printf("workload    %d distinct questions%n", workload.size());
+
+	ExecutionStrategy serverWorkers   = executionStrategy();
+	ExecutionStrategy resolverWorkers = executionStrategy();
+	CacheServer server   = new CacheServer(tree, serverWorkers);
+	Resolver    resolver = new Resolver(server, resolverWorkers);
+	server.setTtlBounds(minimumTtl, CacheServer.DefaultMaximumTtl);
+
+	if(warmup > 0)
+	    drive(resolver, workload, 0, warmup, new LatencyHistogram(), new Outcomes());
+
+	long hits         = server.getCacheHits();
+	long misses       = server.getCacheMisses();
+	long negativeHits = server.getNegativeCacheHits();
+
+	LatencyHistogram latencies = new LatencyHistogram();
+	Outcomes         outcomes  = new Outcomes();
+	long start   = System.nanoTime();
+	drive(resolver, workload, warmup, requests, latencies, outcomes);
+	long elapsed = System.nanoTime() - start;
+
+	System.out.printf("requests    %d (%d failed, %d not found)%n",
+			  requests, outcomes.failed.get(), outcomes.notFound.get());
+	System.out.printf("elapsed     %.3f s%n", seconds(elapsed));
+	System.out.printf("throughput  %.1f req/s%n", requests / seconds(elapsed));
+	System.out.printf("latency     p50 %s  p99 %s  p999 %s  max %s%n",
+			  micros(latencies.percentile(0.50)), micros(latencies.percentile(0.99)),
+			  micros(latencies.percentile(0.999)), micros(latencies.getMaximum()));
+	System.out.printf("cache       %d hits, %d misses, %d entries%n",
+			  server.getCacheHits() - hits, server.getCacheMisses() - misses,
+			  server.getCacheSize());
+	System.out.printf("negative    %d hits, %d entries%n",
+			  server.getNegativeCacheHits() - negativeHits, server.getNegativeCacheSize());
+
+	resolverWorkers.shutdown();
+	serverWorkers.shutdown();
+    }
+
+    // How the answers of one drive() went
+    private static final class Outcomes
+    {
+	final AtomicLong failed   = new AtomicLong();
+	final AtomicLong notFound = new AtomicLong();
+
+	void record(String rdata, Throwable error)
+	{
+	    if(error != null)
+		failed.incrementAndGet();
+	    else if(CacheServer.NotFound.equals(rdata))
+		notFound.incrementAndGet();
+	}
+    }
+
+    private void drive(Resolver resolver, Workload workload, long first, long count,
+		       LatencyHistogram latencies, Outcomes outcomes)
+    {
+	if(rate > 0)
+	    driveAtRate(resolver, workload, first, count, latencies, outcomes);
+	else
+	    driveConcurrently(resolver, workload, first, count, latencies, outcomes);
+    }
+
+    private void driveAtRate(Resolver resolver, Workload workload, long first, long count,
+			     LatencyHistogram latencies, Outcomes outcomes)
+    {
+	AtomicLong completed = new AtomicLong();
+	long       interval  = (long) (1e9 / rate);
+	long       start     = System.nanoTime();
+
+	for(long i = 0; i < count; i++)
+	{
+	    long scheduled = start + i * interval;
+	    long wait      = scheduled - System.nanoTime();
+	    if(wait > 50000)
+		LockSupport.parkNanos(wait);
+	    while(System.nanoTime() < scheduled)
+		Thread.onSpinWait();
+
+	    int question = workload.next(first + i);
+	    resolver.askAsync(workload.getName(question), workload.getType(question))
+		.whenComplete((rdata, error) ->
+		{
+		    latencies.record(System.nanoTime() - scheduled);
+		    outcomes.record(rdata, error);
+		    completed.incrementAndGet();
+		});
+	}
+	while(completed.get() < count)
+	    LockSupport.parkNanos(100000);
+    }
+
+    private void driveConcurrently(Resolver resolver, Workload workload, long first, long count,
+				   LatencyHistogram latencies, Outcomes outcomes)
+    {
+	AtomicLong next = new AtomicLong(first);
+	long       end  = first + count;
+
+	Thread[] clients = new Thread[concurrency];
+	for(int c = 0; c < clients.length; c++)
+	{
+	    clients[c] = new Thread(() ->
+	    {
+		long sequence;
+		while((sequence = next.getAndIncrement()) < end)
+		{
+		    int  question = workload.next(sequence);
+		    long sent     = System.nanoTime();
+		    try
+		    {
+			outcomes.record(resolver.askAsync(workload.getName(question),
+							  workload.getType(question)).join(), null);
+		    }
+		    catch(RuntimeException re)
+		    {
+			outcomes.record(null, re);
+		    }
+		    latencies.record(System.nanoTime() - sent);
+		}
+	    }, "dotoip-load-client-" + c);
+	    clients[c].start();
+	}
+	for(Thread client : clients)
+	{
+	    try
+	    {
+		client.join();
+	    }
+	    catch(InterruptedException ie)
+	    {
+		Thread.currentThread().interrupt();
+		break;
+	    }
+	}
+    }
+
+    private static double seconds(long nanos)
+    {
+	return nanos / 1e9;
+    }
+
+    private static String micros(long nanos)
+    {
+	return String.format("%.1f us", nanos / 1e3);
+    }
+}
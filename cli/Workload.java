@@ -0,0 +1,216 @@
+package cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import src.DomainTree;
+import src.Message;
+import src.RequestType;
+import src.ResourceRecord;
+
+// The questions a load run asks, either replayed from a file in order or
+// drawn from the names of the loaded zone.
+public class Workload
+{
+    private String[]      names;
+    private RequestType[] types;
+    private boolean       replay;
+    private double[]      cumulative;  // Zipf weights, null for uniform draws
+
+    private Workload(List<String> names, List<RequestType> types, boolean replay)
+    {
+	this.names  = names.toArray(new String[names.size()]);
+	this.types  = types.toArray(new RequestType[types.size()]);
+	this.replay = replay;
+    }
+
+    // One question per line, blank lines and '#' comments skipped, either
+    //   name [A|AAAA]
+    // or a JSON object per line, as in requests.jsonl:
+    //   {"name": ".com.amazon.www", "type": "AAAA"}
+    public static Workload fromFile(String filename) throws IOException
+    {
+	ArrayList<String>      names = new ArrayList<>();
+	ArrayList<RequestType> types = new ArrayList<>();
+	try(BufferedReader in = Files.newBufferedReader(Paths.get(filename), StandardCharsets.UTF_8))
+	{
+	    String line;
+	    while((line = in.readLine()) != null)
+	    {
+		line = line.trim();
+		if(line.isEmpty() || line.startsWith("#"))
+		    continue;
+
+		String name;
+		String type;
+		if(line.startsWith("{"))
+		{
+		    name = jsonString(line, "name");
+		    type = jsonString(line, "type");
+		}
+		else
+		{
+		    String[] fields = line.split("\\s+");
+		    name = fields[0];
+		    type = (fields.length > 1) ? fields[1] : null;
+		}
+		if(name == null)
+		    throw new IOException("No name in workload line: " + line);
+		names.add(name);
+		types.add(requestType(type));
+	    }
+	}
+	if(names.isEmpty())
+	    throw new IOException("Workload file " + filename + " holds no questions");
+	return new Workload(names, types, true);
+    }
+
+    // Every owner holding an A or AAAA record in the tree, asked for that
+    // type. Owners a resolver asking from the root would not reach (ones
+    // only an alias leads to, or under a broken delegation) are left out,
+    // as they would only measure NXDOMAIN answers.
+    public static Workload uniform(DomainTree root)
+    {
+	return addressOwners(root);
+    }
+
+    // Zipf over the same names: the k-th most popular (in a seeded random
+    // order) is asked for with weight 1 / k^exponent
+    public static Workload zipf(DomainTree root, double exponent, long seed)
+    {
+	Workload workload = addressOwners(root);
+	workload.shuffle(new Random(seed));
+	workload.cumulative = new double[workload.names.length];
+	double sum = 0;
+	for(int k = 0; k < workload.names.length; k++)
+	{
+	    sum += 1.0 / Math.pow(k + 1, exponent);
+	    workload.cumulative[k] = sum;
+	}
+	return workload;
+    }
+
+    public int size()
+    {
+	return names.length;
+    }
+
+    // Question to ask as the sequence-th request of the run
+    public int next(long sequence)
+    {
+	if(replay)
+	    return (int) (sequence % names.length);
+
+	ThreadLocalRandom random = ThreadLocalRandom.current();
+	if(cumulative == null)
+	    return random.nextInt(names.length);
+
+	double target = random.nextDouble() * cumulative[cumulative.length - 1];
+	int low  = 0;
+	int high = cumulative.length - 1;
+	while(low < high)
+	{
+	    int middle = (low + high) >>> 1;
+	    if(cumulative[middle] < target)
+		low = middle + 1;
+	    else
+		high = middle;
+	}
+	return low;
+    }
+
+    public String getName(int question)
+    {
+	return names[question];
+    }
+
+    public RequestType getType(int question)
+    {
+	return types[question];
+    }
+
+    private static RequestType requestType(String type)
+    {
+	if(type == null || type.equalsIgnoreCase("A") || type.equalsIgnoreCase("IPv4"))
+	    return RequestType.IPv4;
+	if(type.equalsIgnoreCase("AAAA") || type.equalsIgnoreCase("IPv6"))
+	    return RequestType.IPv6;
+	throw new IllegalArgumentException("Unknown question type '" + type + "'");
+    }
+
+    // Value of a flat "key": "value" pair; enough for one question per line
+    private static String jsonString(String line, String key)
+    {
+	int at = line.indexOf("\"" + key + "\"");
+	if(at < 0)
+	    return null;
+	int colon = line.indexOf(':', at + key.length() + 2);
+	int open  = (colon < 0) ? -1 : line.indexOf('"', colon + 1);
+	if(open < 0)
+	    return null;
+	StringBuilder value = new StringBuilder();
+	for(int i = open + 1; i < line.length(); i++)
+	{
+	    char c = line.charAt(i);
+	    if(c == '"')
+		return value.toString();
+	    if(c == '\\' && i + 1 < line.length())
+		c = line.charAt(++i);
+	    value.append(c);
+	}
+	return null;
+    }
+
+    private static Workload addressOwners(DomainTree root)
+    {
+	ArrayList<String>      names   = new ArrayList<>();
+	ArrayList<RequestType> types   = new ArrayList<>();
+	ArrayList<DomainTree>  pending = new ArrayList<>();
+	Message                probe   = new Message();
+	probe.header.method = Message.QueryMethod.RECURSIVE;
+	pending.add(root);
+	while(!pending.isEmpty())
+	{
+	    DomainTree node = pending.remove(pending.size() - 1);
+	    pending.addAll(node.getSubtrees());
+	    for(ResourceRecord rr : node.getResourceRecords())
+	    {
+		if(rr.type == ResourceRecord.Type.A || rr.type == ResourceRecord.Type.AAAA)
+		{
+		    probe.question.name = rr.owner;
+		    probe.question.type = rr.type;
+		    if(root.query(probe).answers.isEmpty())
+			continue;
+		    names.add(rr.owner);
+		    types.add(rr.type == ResourceRecord.Type.A ? RequestType.IPv4 : RequestType.IPv6);
+		}
+	    }
+	}
+	if(names.isEmpty())
+	    throw new IllegalArgumentException("The zone holds no resolvable A or AAAA records to ask for");
+	return new Workload(names, types, false);
+    }
+
+    private void shuffle(Random random)
+    {
+	for(int i = names.length - 1; i > 0; i--)
+	{
+	    int j = random.nextInt(i + 1);
+	    String      name = names[i];
+	    RequestType type = types[i];
+	    names[i] = names[j];
+	    types[i] = types[j];
+	    names[j] = name;
+	    types[j] = type;
+	}
+    }
+}
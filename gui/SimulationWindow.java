@@ -35,6 +35,7 @@ import src.CacheServer;
 import src.Resolver;
 import src.RequestType;
 import src.ResourceRecord;
+import src.ZoneSnapshot;
 
 import misc.Utils;
 
@@ -62,6 +63,7 @@ public class SimulationWindow extends JFrame
 
     	this.TLD = new DomainTree();
     	this.server = new CacheServer(this.TLD);
+    	this.server.setTtlBounds(CacheServer.ZeroTtlZoneFloor, CacheServer.DefaultMaximumTtl);
     	this.resolver = new Resolver(this.server);
       this.displayedTree = this.TLD;
 
@@ -78,9 +80,9 @@ public class SimulationWindow extends JFrame
     {
     	super(Title);
 
-    	this.TLD = DomainTree.fromFile(domainDb);
-    	this.TLD.loadResourceRecords(recordDb);
+    	this.TLD = ZoneSnapshot.loadOrBuild(domainDb, recordDb, recordDb + ".snap");
     	this.server = new CacheServer(this.TLD);
+    	this.server.setTtlBounds(CacheServer.ZeroTtlZoneFloor, CacheServer.DefaultMaximumTtl);
     	this.resolver = new Resolver(this.server);
       this.displayedTree = this.TLD;
 
@@ -94,6 +96,15 @@ public class SimulationWindow extends JFrame
 
     }
 
+    // The lookup workers go with the window
+    @Override
+    public void dispose()
+    {
+    	super.dispose();
+    	resolver.close();
+    	server.close();
+    }
+
     private void initComponents()
     {
     	JPanel infoPanel = new JPanel();
@@ -338,7 +349,7 @@ public class SimulationWindow extends JFrame
         super(SimulationWindow.this, Title, Dialog.ModalityType.DOCUMENT_MODAL);
 
         this.tree = tree;
-        this.rrs  = tree.getResourceRecords();
+        this.rrs  = new ArrayList<ResourceRecord>(tree.getResourceRecords());
 
         this.setSize(new Dimension(440, 440));
         initComponents();
@@ -432,7 +443,8 @@ public class SimulationWindow extends JFrame
           }
           else
           {
-            tree.label = label;
+            tree.setLabel(label);
+            tree.setResourceRecords(rrs);
           }
 
           exitState = EXIT_STATE_OK;
@@ -0,0 +1,41 @@
+package src;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// Direct buffers for the wire front ends. Taking and returning a buffer
+// allocates nothing (the free list is an array), so the packet paths can
+// use one per message. When the pool runs dry a new buffer is made, and
+// buffers returned to a full pool are left to the collector.
+final class BufferPool
+{
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final int bufferSize;
+
+    BufferPool(int bufferSize, int maximumFree)
+    {
+	this.bufferSize = bufferSize;
+	this.free       = new ArrayBlockingQueue<ByteBuffer>(maximumFree);
+    }
+
+    // Cleared and ready to be written
+    ByteBuffer acquire()
+    {
+	ByteBuffer buffer = free.poll();
+	if(buffer == null)
+	    return ByteBuffer.allocateDirect(bufferSize);
+	buffer.clear();
+	return buffer;
+    }
+
+    void release(ByteBuffer buffer)
+    {
+	if(buffer.capacity() == bufferSize)
+	    free.offer(buffer);
+    }
+
+    int getBufferSize()
+    {
+	return bufferSize;
+    }
+}
@@ -1,58 +1,280 @@
 package src;
 
-import java.io.PrintWriter;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.Closeable;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class CacheServer
+public class CacheServer implements Closeable
 {
     private String name;    // @Unused @ForNow
 
     private DomainTree TLD; // Top Level Domain
     
-    private ConcurrentHashMap<String,  ArrayList<ResourceRecord>> cache;
-    private ConcurrentHashMap<Integer, ResourceRecord> responses;
+    private TtlCache<QuestionKey, RRset>      cache;
+    private TtlCache<QuestionKey, RRset>      negativeCache; // questions with no answer
+    private TtlCache<DomainName, DomainTree>  delegations;   // zone cuts learned from NS records
+    private TtlCache<String, ResourceRecord>  aliases;       // CNAME records by (canonical) owner
+    private ResponseCache                     encodedResponses; // for the wire front ends
+    // Version of the tree the caches were filled from, see DomainTree.getVersion
+    private volatile long zoneVersion;
+    private HandleTable<CompletableFuture<ResourceRecord>> responses; // pending query() handles
+    // Lookups currently walking the tree, so concurrent misses share one walk
+    private ConcurrentHashMap<QuestionKey, CompletableFuture<RRset>> inFlight;
 
-    private static int responseGlobalCounter = 0;
+    private ExecutionStrategy workers;
+    private boolean           ownsWorkers;  // made here, so close() shuts them down
+
+    // Bounds applied to record TTLs before caching. By default a record is
+    // cached as long as its TTL says, and a TTL of 0 is not cached at all.
+    private int minimumTtl = DefaultMinimumTtl;
+    private int maximumTtl = DefaultMaximumTtl;
+    private int negativeTtl = DefaultNegativeTtl;
+
+    private RRset.Rotation rotation = RRset.Rotation.NONE;
+
+    public static final int DefaultCacheCapacity = 100000;
+    public static final int DefaultMinimumTtl    = 0;
+    public static final int DefaultMaximumTtl    = 86400;
+    public static final int DefaultNegativeTtl   = 60;
+
+    // rdata of the UNSET record answering a question that has no answer
+    public static final String NotFound = "Not found";
+
+    // A floor for zones that ship TTL 0 everywhere, like the sample ones.
+    // Without a floor nothing from them would ever be cached, so their
+    // setups opt in through setTtlBounds().
+    public static final int ZeroTtlZoneFloor     = 30;
+
+    // Longest CNAME chain followed for one question, cached hops included
+    public static final int MaxAliasChain = DomainTree.MaxAliasChain;
+
+    private static final LogSink Log = new LogSink("log/server", "dt_search_");
     
     public CacheServer(DomainTree TLD)
     {
-	this.TLD   = TLD;
-	this.cache = new ConcurrentHashMap<String,
-	                                   ArrayList<ResourceRecord>>();
-	this.responses = new ConcurrentHashMap<Integer, ResourceRecord>();
+	this(TLD, ExecutionStrategy.defaultStrategy());
+	this.ownsWorkers = true;
     }
 
+    // Stops the workers the server made for itself; a strategy handed to
+    // the constructor is left to whoever made it
+    public void close()
+    {
+	if(ownsWorkers)
+	    workers.shutdown();
+    }
+
+    public CacheServer(DomainTree TLD, ExecutionStrategy workers)
+    {
+	this(TLD, workers, DefaultCacheCapacity, TtlCache.Policy.LRU);
+    }
+
+    public CacheServer(DomainTree TLD, ExecutionStrategy workers,
+		       int cacheCapacity, TtlCache.Policy evictionPolicy)
+    {
+	this.TLD     = TLD;
+	this.workers = workers;
+	this.cache   = new TtlCache<QuestionKey, RRset>(cacheCapacity, evictionPolicy);
+	this.negativeCache = new TtlCache<QuestionKey, RRset>(Math.max(1, cacheCapacity / 10),
+							      evictionPolicy);
+	this.delegations   = new TtlCache<DomainName, DomainTree>(Math.max(1, cacheCapacity / 10),
+								     evictionPolicy);
+	this.aliases       = new TtlCache<String, ResourceRecord>(Math.max(1, cacheCapacity / 10),
+								  evictionPolicy);
+	this.encodedResponses = new ResponseCache(cacheCapacity, evictionPolicy);
+	this.zoneVersion      = TLD.getVersion();
+	this.responses = new HandleTable<CompletableFuture<ResourceRecord>>();
+	this.inFlight  = new ConcurrentHashMap<QuestionKey, CompletableFuture<RRset>>();
+    }
+
+    public int getQueueDepth()
+    {
+	return workers.getQueueDepth();
+    }
+
+    public int getActiveWorkers()
+    {
+	return workers.getActiveWorkers();
+    }
+
+    public long getCacheHits()
+    {
+	return cache.getHits();
+    }
+
+    // Questions neither cache could answer; those the negative cache
+    // answered count as negative cache hits, not as misses
+    public long getCacheMisses()
+    {
+	return cache.getMisses() - negativeCache.getHits();
+    }
+
+    public long getCacheEvictions()
+    {
+	return cache.getEvictions();
+    }
+
+    public int getCacheSize()
+    {
+	return cache.size();
+    }
+
+    public long getNegativeCacheHits()
+    {
+	return negativeCache.getHits();
+    }
+
+    public int getNegativeCacheSize()
+    {
+	return negativeCache.size();
+    }
+
+    // How long a "not found" answer is remembered; 0 disables negative caching
+    public void setNegativeTtl(int negativeTtl)
+    {
+	this.negativeTtl = negativeTtl;
+    }
+
+    public void setTtlBounds(int minimumTtl, int maximumTtl)
+    {
+	this.minimumTtl = minimumTtl;
+	this.maximumTtl = maximumTtl;
+    }
+
+    // Order in which cached RRsets are handed out on hits
+    public void setRotation(RRset.Rotation rotation)
+    {
+	this.rotation = rotation;
+    }
+
+    public RRset.Rotation getRotation()
+    {
+	return rotation;
+    }
+
+    public long getDelegationHits()
+    {
+	return delegations.getHits();
+    }
+
+    public int getDelegationCacheSize()
+    {
+	return delegations.size();
+    }
+
+    public long getAliasHits()
+    {
+	return aliases.getHits();
+    }
+
+    public int getAliasCacheSize()
+    {
+	return aliases.size();
+    }
+
+    public long getResponseCacheHits()
+    {
+	return encodedResponses.getHits();
+    }
+
+    public int getResponseCacheSize()
+    {
+	return encodedResponses.size();
+    }
+
+    public void flushCache()
+    {
+	cache.clear();
+	negativeCache.clear();
+	delegations.clear();
+	aliases.clear();
+	encodedResponses.clear();
+    }
+
+    // Changes with every edit of the tree served
+    public long getZoneVersion()
+    {
+	return TLD.getVersion();
+    }
+
+    ResponseCache getResponseCache()
+    {
+	return encodedResponses;
+    }
+
+    // Nanoseconds the cached answer to key has left, 0 when there is none
+    long answerTimeToLive(QuestionKey key)
+    {
+	return Math.max(cache.timeToLive(key), negativeCache.timeToLive(key));
+    }
+
+    // Blocking adapter over queryAsync(): parks the caller until the
+    // lookup behind responseCode completes
     public ResourceRecord getOrWait(int responseCode)
     {
-	if(!responses.containsKey(responseCode))
+	CompletableFuture<ResourceRecord> response = responses.remove(responseCode);
+	if(response == null)
 	    return null;
-	while(responses.get(responseCode) == ResourceRecord.INVALID);
 
-	ResourceRecord response = responses.get(responseCode);
-	responses.remove(responseCode);
-	
-	return response;
+	return response.join();
     }
 
     // @Useless?
     public ResourceRecord getFromCache(String domainAddress,
 				       RequestType what)
     {
-	ResourceRecord.Type type = null;
-	if(what == RequestType.IPv4)
-	    type = ResourceRecord.Type.A;
-	else if(what == RequestType.IPv6)
-	    type = ResourceRecord.Type.AAAA;
-	
-	return checkCache(domainAddress, type);
+	RRset cached = checkCache(questionKey(domainAddress, what));
+	return (cached == null) ? null : cached.first(rotation);
     }
     
     public int query(String domainAddress, RequestType what)
+    {
+	return responses.register(queryAsync(domainAddress, what));
+    }
+
+    // First record of the answer, the one the rotation puts in front
+    public CompletableFuture<ResourceRecord> queryAsync(String domainAddress,
+							RequestType what)
+    {
+	QuestionKey key = questionKey(domainAddress, what);
+	RRset cached = checkCache(key);
+	if(cached != null) // cache-hit
+	    return CompletableFuture.completedFuture(cached.first(rotation));
+
+	return lookup(key).thenApply((rrset) -> rrset.first(rotation));
+    }
+
+    // Every record answering the question, rotated on cache hits. A name
+    // without an answer yields its single UNSET "Not found" record.
+    public CompletableFuture<List<ResourceRecord>> queryRRsetAsync(String domainAddress,
+								   RequestType what)
+    {
+	QuestionKey key = questionKey(domainAddress, what);
+	RRset cached = checkCache(key);
+	if(cached != null) // cache-hit
+	    return CompletableFuture.completedFuture(cached.rotate(rotation));
+
+	return lookup(key).thenApply((rrset) -> rrset.rotate(rotation));
+    }
+
+    // For the wire front ends, which build their keys themselves: the
+    // cached answer or null, for them to rotate. Counts a hit or a miss like
+    // queryAsync() but never starts a walk, and allocates nothing.
+    RRset cachedAnswer(QuestionKey key)
+    {
+	return checkCache(key);
+    }
+
+    // Walk for a question cachedAnswer() just missed
+    CompletableFuture<RRset> lookupAnswer(QuestionKey key)
+    {
+	return lookup(key);
+    }
+
+    private static QuestionKey questionKey(String domainAddress, RequestType what)
     {
 	ResourceRecord.Type type = null;
 	if(what == RequestType.IPv4)
@@ -60,76 +282,323 @@ public class CacheServer
 	else if(what == RequestType.IPv6)
 	    type = ResourceRecord.Type.AAAA;
 
-	int responseCode = responseGlobalCounter++;
-	
-	ResourceRecord cachedRecord = checkCache(domainAddress, type);
-	if(cachedRecord != null) // cache-hit
+	// One spelling per name, so "com.Amazon.WWW" shares the cache entry
+	// and the in-flight walk of ".com.amazon.www"
+	return new QuestionKey(DomainName.canonical(domainAddress), type);
+    }
+
+    private CompletableFuture<RRset> lookup(QuestionKey key)
+    {
+	CompletableFuture<RRset> pending = inFlight.get(key);
+	if(pending != null) // someone is already walking for this question
+	    return pending;
+
+	CompletableFuture<RRset> response = new CompletableFuture<>();
+	pending = inFlight.putIfAbsent(key, response);
+	if(pending != null)
+	    return pending;
+
+	// A walk for the same question may have finished between the cache
+	// check and our registration
+	RRset cached = peekCache(key);
+	if(cached != null)
 	{
-	    responses.put(responseCode, cachedRecord);
-	    System.out.println("Cache-hit");
-	    return responseCode;
+	    inFlight.remove(key, response);
+	    response.complete(cached);
+	    return response;
 	}
-	    	
-	ResourceGetter getter = new ResourceGetter(domainAddress, type,
-						   responseCode);
-	getter.start();
 
-	return responseCode;
+	// The getter caches its answer before completing, so once the entry
+	// is gone later callers find the result in the cache
+	response.whenComplete((rrset, error) -> inFlight.remove(key, response));
+
+	ResourceGetter getter = new ResourceGetter(key.name, key.type, response);
+	workers.execute(getter);
+
+	return response;
+    }
+
+    private RRset checkCache(QuestionKey key)
+    {
+	checkZoneVersion();
+	RRset rrset = cache.get(key);
+	if(rrset != null)
+	    return rrset;
+	return negativeCache.get(key);
+    }
+
+    private RRset peekCache(QuestionKey key)
+    {
+	checkZoneVersion();
+	RRset rrset = cache.peek(key);
+	if(rrset != null)
+	    return rrset;
+	return negativeCache.peek(key);
+    }
+
+    // What was cached from the tree before it changed is forgotten
+    private void checkZoneVersion()
+    {
+	long version = TLD.getVersion();
+	if(version == zoneVersion)
+	    return;
+	synchronized(this)
+	{
+	    if(version != zoneVersion)
+	    {
+		flushCache();
+		zoneVersion = version;
+	    }
+	}
     }
 
-    private ResourceRecord checkCache(String domainAddress,
-				      ResourceRecord.Type type)
+    private int cacheTtl(int ttl)
     {
-	ArrayList<ResourceRecord> rrs = cache.get(domainAddress);
+	return Math.max(minimumTtl, Math.min(maximumTtl, ttl));
+    }
 
-	if(rrs != null)
+    // Deepest zone we already know the servers of, among the ancestors of
+    // domainAddress (itself included). Falls back to the root. 'zone' is
+    // scratch space for the probes.
+    private DomainTree closestKnownZone(String domainAddress, DomainName zone)
+    {
+	zone.set(domainAddress);
+	for(int labels = zone.getLabelCount(); labels > 0; labels--)
 	{
-	   for(ResourceRecord rr : rrs)
-	   {
-               if(rr.type == type)
-		   return rr;
-	   }
+	    DomainTree authority = delegations.get(zone.truncate(labels));
+	    if(authority != null)
+		return authority;
 	}
-	return null;
+	return TLD;
     }
 
-    private class ResourceGetter extends Thread
+    private class ResourceGetter implements Runnable
     {
 	private String              domainAddress;
 	private ResourceRecord.Type type;
-	private int responseCode;
+	private CompletableFuture<RRset> response;
 
-	private static final String LogDirectory = "log/server";
-	private static final String LogPrefix    = "dt_search_";
+	private int aliasTtl = Integer.MAX_VALUE;  // lowest TTL along the CNAME chain taken
+
+	private ArrayList<ResourceRecord> taken = new ArrayList<>();  // every CNAME the chain took
+
+	private DomainName zone = new DomainName();  // probes the delegation cache
 	
 	public ResourceGetter(String domainAddress,
 			      ResourceRecord.Type type,
-			      int responseCode)
+			      CompletableFuture<RRset> response)
 	{
 	    this.domainAddress = domainAddress;
 	    this.type          = type;
-	    this.responseCode  = responseCode;
-	    cache.put(domainAddress, new ArrayList<ResourceRecord>());
-	    responses.put(responseCode, ResourceRecord.INVALID);
+	    this.response      = response;
 	}
 
 	public void run()
 	{
-       	    ArrayList<DomainTree> authorities = new ArrayList<>();
-	    ArrayList<String>     log         = new ArrayList<>();
+	    try
+	    {
+		resolve();
+	    }
+	    catch(RuntimeException re)
+	    {
+		// Never leave a waiter parked on a lookup that blew up
+		response.completeExceptionally(re);
+	    }
+	}
+
+	private void resolve()
+	{
+	    // null while logging is switched off, so no line is ever built
+	    StringBuilder             log   = LogSink.isEnabled() ? startLog() : null;
+	    ArrayList<ResourceRecord> found = new ArrayList<>();
+
+	    RRset answer = null;
+
+	    // Take the cached part of an alias chain first, the walk only has
+	    // to cover what is left of it
+	    ArrayList<String> chain = new ArrayList<>();
+	    chain.add(domainAddress);
+	    boolean gotAnswer = followCachedAliases(chain, log, found);
+
+	    if(!gotAnswer)
+	    {
+		String     name  = chain.get(chain.size() - 1);
+		DomainTree start = closestKnownZone(name, zone);
+		if(start != TLD && log != null)
+		    start.appendDomainAddress(log.append("Starting from cached zone '"), false).append("'\n");
+		gotAnswer = walk(start, chain, log, found);
+		if(!gotAnswer && start != TLD)
+		{
+		    // The cached cut may be stale (zones can be edited), retry from the top
+		    if(log != null)
+			log.append("No answer below the cached zone, restarting from the root\n");
+		    gotAnswer = walk(TLD, chain, log, found);
+		}
+	    }
+
+	    if(gotAnswer)
+	    {
+		answer = new RRset(found, aliasPath(found.get(0).owner));
+		cacheAliasTargets(found);
+		cache.put(new QuestionKey(domainAddress, type), answer,
+			  cacheTtl(Math.min(answer.getMinimumTtl(), aliasTtl)));
+	    }
+	    else
+	    {
+		if(log != null)
+		    log.append("Could not find an appropriate answer for the request\n");
+		answer = new RRset(new ResourceRecord(domainAddress, ResourceRecord.Type.UNSET, negativeTtl, NotFound));
+		negativeCache.put(new QuestionKey(domainAddress, type), answer, negativeTtl);
+	    }
+
+	    response.complete(answer);
+
+	    if(log != null)
+		Log.append(log.toString());
+	}
+
+	// Extends 'chain' with cached CNAMEs from its last name. Stops with an
+	// answer as soon as a name on the way has its records cached.
+	private boolean followCachedAliases(List<String> chain, StringBuilder log,
+					    List<ResourceRecord> found)
+	{
+	    while(chain.size() <= MaxAliasChain)
+	    {
+		ResourceRecord alias = aliases.get(chain.get(chain.size() - 1));
+		if(alias == null)
+		    return false;
+		if(chain.contains(alias.rdata))
+		{
+		    if(log != null)
+			log.append("--- Alias loop through '").append(alias.rdata).append("'\n");
+		    return false;
+		}
+		chain.add(alias.rdata);
+		taken.add(alias);
+		aliasTtl = Math.min(aliasTtl, alias.timeToLive);
+		if(log != null)
+		    log.append("--- Cached alias '").append(alias.owner).append("' -> '").append(alias.rdata).append("'\n");
+
+		RRset known = cache.peek(new QuestionKey(alias.rdata, type));
+		if(known != null)
+		{
+		    found.addAll(known.rotate(RRset.Rotation.NONE));
+		    taken.addAll(known.getAliases());
+		    if(log != null)
+			log.append("---- Cached answer for '").append(alias.rdata).append("'\n");
+		    return true;
+		}
+	    }
+	    return false;
+	}
+
+	// The CNAMEs taken from the question to 'owner', in chain order
+	private List<ResourceRecord> aliasPath(String owner)
+	{
+	    ArrayList<ResourceRecord> path = new ArrayList<>();
+	    String name = domainAddress;
+	    while(!name.equals(owner) && path.size() < taken.size())
+	    {
+		ResourceRecord alias = null;
+		for(ResourceRecord rr : taken)
+		{
+		    if(rr.owner.equals(name))
+		    {
+			alias = rr;
+			break;
+		    }
+		}
+		if(alias == null)
+		    break;
+		path.add(alias);
+		name = alias.rdata;
+	    }
+	    return path;
+	}
+
+	// Answers reached through aliases also answer their own names, so
+	// those are cached too (unless they already are)
+	private void cacheAliasTargets(List<ResourceRecord> found)
+	{
+	    for(int i = 0; i < found.size(); i++)
+	    {
+		String owner = found.get(i).owner;
+		if(owner.equals(domainAddress) || isEarlierOwner(found, i))
+		    continue;
+		QuestionKey key = new QuestionKey(owner, type);
+		if(cache.peek(key) != null)
+		    continue;
+
+		ArrayList<ResourceRecord> owned = new ArrayList<>();
+		for(int j = i; j < found.size(); j++)
+		{
+		    if(found.get(j).owner.equals(owner))
+			owned.add(found.get(j));
+		}
+		RRset rrset = new RRset(owned);
+		cache.put(key, rrset, cacheTtl(rrset.getMinimumTtl()));
+	    }
+	}
+
+	private boolean isEarlierOwner(List<ResourceRecord> found, int index)
+	{
+	    String owner = found.get(index).owner;
+	    for(int i = 0; i < index; i++)
+	    {
+		if(found.get(i).owner.equals(owner))
+		    return true;
+	    }
+	    return false;
+	}
+
+	// A zone cut already cached is left as it is, so only a new one costs
+	// a key of its own
+	private void learnDelegation(ResourceRecord ns, DomainTree delegate)
+	{
+	    zone.set(ns.rdata);
+	    if(delegations.peek(zone) == null)
+		delegations.put(zone.copy(), delegate, cacheTtl(ns.timeToLive));
+	}
+
+	private StringBuilder startLog()
+	{
+	    StringBuilder log = new StringBuilder(512);
+	    log.append("Received message from resolver, requested IP of '").append(domainAddress).append("'\n");
+	    log.append("---------------------------------------------------\n");
+	    return log;
+	}
+
+	// Looks for the names of 'chain', asking each server for all of them
+	// (a server may only know the delegation of an alias in the middle);
+	// aliases met on the way are cached and appended to the chain, up to
+	// MaxAliasChain of them
+	private boolean walk(DomainTree start, List<String> chain, StringBuilder log,
+			     List<ResourceRecord> found)
+	{
+	    if(log == null)
+		return descend(start, chain, found);
+
+	    ArrayList<DomainTree> authorities = new ArrayList<>();
 	    ArrayList<String>     domainNames = new ArrayList<>();
 
-	    authorities.add(TLD);
-	    domainNames.add(domainAddress);
+	    authorities.add(start);
+	    domainNames.addAll(chain);
 
-	    ResourceRecord responseRecord = null;
-	    
 	    boolean gotAnswer = false;
+	    int     asked     = 0;
 	    while(!gotAnswer && authorities.size() > 0)
 	    {
+		// Same bound as DomainTree.resolve(), against cycles of NS records
+		if(asked++ == DomainTree.MaxReferrals)
+		{
+		    if(log != null)
+			log.append("--- Giving up after ").append(DomainTree.MaxReferrals).append(" servers\n");
+		    break;
+		}
 		DomainTree currentAuthority = authorities.remove(authorities.size()-1);  // pop()
 
 		ArrayList<String> tempNames = new ArrayList<>(); // used to gather all the CNAMEs found
+		asking:
 		for(String name : domainNames)
 		{
 		    Message message = new Message();
@@ -137,14 +606,20 @@ public class CacheServer
 		    message.question.name = name;
 		    message.question.type = this.type;
 
-		    log.add("Request: " + message.header.method + " query, searching in domain '" + currentAuthority.getDomainAddress() + "' for " + this.type + " records of '" + name + "'");
+		    if(log != null)
+		    {
+			log.append("Request: ").append(message.header.method).append(" query, searching in domain '");
+			currentAuthority.appendDomainAddress(log, false);
+			log.append("' for ").append(this.type).append(" records of '").append(name).append("'\n");
+		    }
 
 		    long elapsedTime = System.nanoTime();
 		
 		    Message response = currentAuthority.query(message);
 
 		    elapsedTime = System.nanoTime() - elapsedTime;
-		    log.add("Response received in " + (((double)elapsedTime)/1000000000) + " seconds.");
+		    if(log != null)
+			log.append("Response received in ").append(((double)elapsedTime)/1000000000).append(" seconds.\n");
 		
 		    for(ResourceRecord rr : response.answers)
 		    {
@@ -155,11 +630,11 @@ public class CacheServer
 			    {
 				if(type == rr.type)
 				{
-				    responseRecord = rr;
-				    cache.get(domainAddress).add(rr); 
+				    found.add(rr);
 				    gotAnswer = true;
 				    
-				    log.add("---- Received IP address: " + rr.rdata);
+				    if(log != null)
+					log.append("---- Received IP address: ").append(rr.rdata).append('\n');
 				}
 			    } break;
 		        }
@@ -172,22 +647,53 @@ public class CacheServer
 			    case NS:
 			    {
 				DomainTree delegate = TLD.getSubtree(rr.rdata);
+				if(delegate == null)
+				{
+				    if(log != null)
+					log.append("--- Delegate '").append(rr.rdata).append("' does not exist\n");
+				    break;
+				}
 				authorities.add(delegate);
+				learnDelegation(rr, delegate);
 				
-				log.add("--- Pointed delegate '" + rr.rdata + "'");
+				if(log != null)
+				    log.append("--- Pointed delegate '").append(rr.rdata).append("'\n");
 			    } break;
 			    case CNAME:
 			    {
-				tempNames.add(rr.rdata);
+				aliases.put(rr.owner, rr, cacheTtl(rr.timeToLive));
+				if(chain.contains(rr.rdata) || chain.size() > MaxAliasChain)
+				{
+				    if(log != null)
+					log.append("--- Ignoring alias '").append(rr.rdata).append("', loop or chain too long\n");
+				    break;
+				}
+				int added = chain.size();
+				chain.add(rr.rdata);
+				taken.add(rr);
+				aliasTtl = Math.min(aliasTtl, rr.timeToLive);
 
-				log.add("--- Found alias '" + rr.rdata + "'");
+				if(log != null)
+				    log.append("--- Found alias '").append(rr.rdata).append("'\n");
+
+				// The rest of the chain may already be known, and when it
+				// ends at an answer nothing else said here matters
+				if(followCachedAliases(chain, log, found))
+				{
+				    gotAnswer = true;
+				    break asking;
+				}
+				// Otherwise every name of it is still asked for: the
+				// delegations leading to its end may hang off any of them
+				tempNames.addAll(chain.subList(added, chain.size()));
 			    } break;
 			}
 		    }
 		    
 		    for(ResourceRecord rr : response.additional)
 		    {
-			System.out.println(rr.rdata);
+			if(log != null)
+			    log.append("--- Additional ").append(rr.type).append(" record '").append(rr.rdata).append("'\n");
 			/* switch(rr.type)
 			   {
 			   }*/
@@ -197,37 +703,47 @@ public class CacheServer
 		for(String names : tempNames) // Moving from the temporary array to the real one
 		    domainNames.add(names);
 	    }
-	    if(!gotAnswer)
-	    {
-		log.add("Could not find an appropriate answer for the request");
-		responseRecord = new ResourceRecord(domainAddress, ResourceRecord.Type.UNSET, 0, "Not found");
-	    }
-	    
-	    responses.put(responseCode, responseRecord);
-
-	    String filename = LogDirectory + "/" + LogPrefix + domainAddress.replaceAll("\\.", "") + ".txt";
-	    writeLog(filename, log);
+	    return gotAnswer;
 	}
 
-	private boolean writeLog(String filename, List<String> log)
+	// walk() with nothing to log: the tree walks itself in one call (see
+	// DomainTree.resolve), asking for every name of the chain, and the
+	// delegations and aliases are learned from its referral trail. As in
+	// walk(), an alias whose target is cached answers from the cache.
+	private boolean descend(DomainTree start, List<String> chain, List<ResourceRecord> found)
 	{
-	    try
-	    {
-		PrintWriter out = new PrintWriter(new FileOutputStream(filename));
-
-		out.println("Received message from resolver, requested IP of '" + domainAddress + "'");
-		out.println("---------------------------------------------------");
-		for(String line : log)
-		    out.println(line);
+	    Message               response  = new Message();
+	    ArrayList<DomainTree> delegates = new ArrayList<>();
+	    start.resolve(chain, type, response, delegates);
 
-		out.close();
-		
-		return true;
+	    int delegate = 0;
+	    for(ResourceRecord rr : response.authority)
+	    {
+		if(rr.type == ResourceRecord.Type.NS)
+		{
+		    learnDelegation(rr, delegates.get(delegate++));
+		    continue;
+		}
+		aliases.put(rr.owner, rr, cacheTtl(rr.timeToLive));
+		if(chain.contains(rr.rdata))
+		    continue;  // already followed through the cache below
+		chain.add(rr.rdata);
+		taken.add(rr);
+		aliasTtl = Math.min(aliasTtl, rr.timeToLive);
+		if(followCachedAliases(chain, null, found))
+		    return true;
 	    }
-	    catch(IOException ie)
+
+	    boolean gotAnswer = false;
+	    for(ResourceRecord rr : response.answers)
 	    {
-		return false;
+		if(rr.type == type && (rr.type == ResourceRecord.Type.A || rr.type == ResourceRecord.Type.AAAA))
+		{
+		    found.add(rr);
+		    gotAnswer = true;
+		}
 	    }
+	    return gotAnswer;
 	}
     }
 }
@@ -0,0 +1,352 @@
+package src;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Read-only, flattened copy of a DomainTree for the lookup paths.
+// The mutable tree stays the thing that gets edited; compile() takes a
+// picture of it in which nodes are plain int indices, labels and owners are
+// SymbolTable.Shared ids (the same ones the tree and the cache use), rdata
+// are ids in a table of the zone's own, and records live off-heap, so a
+// large zone costs a handful of arrays instead of millions of small objects.
+// findNode() never allocates, nor does query() for a name in canonical form.
+//
+// Layout:
+//   nodes     breadth first, so the children of a node are one contiguous
+//             range [firstChild[n], firstChild[n + 1]) sorted by label id
+//             (ties keep insertion order, the first one wins like findSubtree)
+//   records   4 ints each (owner, type, time to live, rdata) in a direct
+//             buffer, node by node in [firstRecord[n], firstRecord[n + 1]),
+//             grouped by owner and in load order within an owner
+public final class CompiledZone
+{
+    private final SymbolTable symbols = SymbolTable.Shared;
+    private final SymbolTable rdata;
+
+    private final int[] nodeLabel;
+    private final int[] nodeParent;
+    private final int[] firstChild;
+    private final int[] firstRecord;
+
+    private final IntBuffer records;
+
+    private static final int RecordInts = 4;
+    private static final int Owner      = 0;
+    private static final int Type       = 1;
+    private static final int TimeToLive = 2;
+    private static final int Rdata      = 3;
+
+    private static final ResourceRecord.Type[] Types = ResourceRecord.Type.values();
+
+    public static final int Root = 0;
+
+    private CompiledZone(SymbolTable rdata, int nodeCount, int recordCount)
+    {
+	this.rdata       = rdata;
+	this.nodeLabel   = new int[nodeCount];
+	this.nodeParent  = new int[nodeCount];
+	this.firstChild  = new int[nodeCount + 1];
+	this.firstRecord = new int[nodeCount + 1];
+	this.records     = ByteBuffer.allocateDirect(recordCount * RecordInts * 4)
+				     .order(ByteOrder.nativeOrder())
+				     .asIntBuffer();
+    }
+
+    public static CompiledZone compile(DomainTree root)
+    {
+	SymbolTable rdata = new SymbolTable();
+
+	// Breadth-first order, children of each node sorted by label id
+	ArrayList<DomainTree> nodes   = new ArrayList<>();
+	ArrayList<Integer>    parents = new ArrayList<>();
+	int recordCount = 0;
+	nodes.add(root);
+	parents.add(-1);
+	for(int n = 0; n < nodes.size(); n++)
+	{
+	    DomainTree node = nodes.get(n);
+	    recordCount += node.getResourceRecords().size();
+
+	    List<DomainTree> subtrees = node.getSubtrees();
+	    long[] order = new long[subtrees.size()];
+	    for(int i = 0; i < order.length; i++)
+		order[i] = ((long) subtrees.get(i).getLabelId() << 32) | i;
+	    Arrays.sort(order);
+	    for(long entry : order)
+	    {
+		nodes.add(subtrees.get((int) entry));
+		parents.add(n);
+	    }
+	}
+
+	CompiledZone zone = new CompiledZone(rdata, nodes.size(), recordCount);
+
+	int child  = 1;
+	int record = 0;
+	for(int n = 0; n < nodes.size(); n++)
+	{
+	    DomainTree node = nodes.get(n);
+	    zone.nodeLabel[n]  = node.getLabelId();
+	    zone.nodeParent[n] = parents.get(n);
+
+	    zone.firstChild[n] = child;
+	    child += node.getSubtrees().size();
+
+	    zone.firstRecord[n] = record;
+	    List<ResourceRecord> rrs = node.getResourceRecords();
+	    long[] order = new long[rrs.size()];
+	    for(int i = 0; i < order.length; i++)
+		order[i] = ((long) rrs.get(i).getOwnerId() << 32) | i;
+	    Arrays.sort(order);
+	    for(long entry : order)
+	    {
+		ResourceRecord rr = rrs.get((int) entry);
+		int base = record * RecordInts;
+		zone.records.put(base + Owner,      (int) (entry >>> 32));
+		zone.records.put(base + Type,       rr.type.ordinal());
+		zone.records.put(base + TimeToLive, rr.timeToLive);
+		zone.records.put(base + Rdata,      rdata.intern(rr.rdata));
+		record++;
+	    }
+	}
+	zone.firstChild[nodes.size()]  = child;
+	zone.firstRecord[nodes.size()] = record;
+	return zone;
+    }
+
+    public int getNodeCount()
+    {
+	return nodeLabel.length;
+    }
+
+    public int getRecordCount()
+    {
+	return firstRecord[nodeLabel.length];
+    }
+
+    // Same walk as DomainTree.getSubtree: empty labels are skipped and
+    // labels match in any case, so any spelling of a name finds its node
+    // without being canonicalized first. Returns -1 when the name is not
+    // in the zone.
+    public int findNode(CharSequence domainAddress)
+    {
+	int node   = Root;
+	int length = domainAddress.length();
+	int start  = 0;
+	while(start <= length)
+	{
+	    int end = start;
+	    while(end < length && domainAddress.charAt(end) != '.')
+		end++;
+	    if(end > start)
+	    {
+		int label = symbols.find(domainAddress, start, end);
+		if(label < 0)
+		    return -1;
+		node = findChild(node, label);
+		if(node < 0)
+		    return -1;
+	    }
+	    start = end + 1;
+	}
+	return node;
+    }
+
+    // First child of 'node' carrying 'label', or -1
+    public int findChild(int node, int label)
+    {
+	int low  = firstChild[node];
+	int high = firstChild[node + 1] - 1;
+	while(low <= high)
+	{
+	    int middle = (low + high) >>> 1;
+	    if(nodeLabel[middle] < label)
+		low = middle + 1;
+	    else
+		high = middle - 1;
+	}
+	return (low < firstChild[node + 1] && nodeLabel[low] == label) ? low : -1;
+    }
+
+    public String getLabel(int node)
+    {
+	int label = nodeLabel[node];
+	return (label < 0) ? null : symbols.symbol(label);
+    }
+
+    public int getParent(int node)
+    {
+	return nodeParent[node];
+    }
+
+    public int getChildCount(int node)
+    {
+	return firstChild[node + 1] - firstChild[node];
+    }
+
+    public int getChild(int node, int index)
+    {
+	return firstChild[node] + index;
+    }
+
+    public String getDomainAddress(int node)
+    {
+	return getDomainName(node, new DomainName()).toString();
+    }
+
+    public DomainName getDomainName(int node, DomainName out)
+    {
+	out.clear();
+	appendLabels(node, out);
+	return out;
+    }
+
+    private void appendLabels(int node, DomainName out)
+    {
+	if(nodeParent[node] < 0)
+	    return;
+	appendLabels(nodeParent[node], out);
+	out.appendLabel(symbols.symbol(nodeLabel[node]));
+    }
+
+    public String getOwner(int record)
+    {
+	return symbols.symbol(records.get(record * RecordInts + Owner));
+    }
+
+    public ResourceRecord.Type getType(int record)
+    {
+	return Types[records.get(record * RecordInts + Type)];
+    }
+
+    public int getTimeToLive(int record)
+    {
+	return records.get(record * RecordInts + TimeToLive);
+    }
+
+    public String getRdata(int record)
+    {
+	return rdata.symbol(records.get(record * RecordInts + Rdata));
+    }
+
+    public ResourceRecord toResourceRecord(int record)
+    {
+	return new ResourceRecord(getOwner(record), getType(record),
+				  getTimeToLive(record), getRdata(record));
+    }
+
+    // Fills 'result' with the records 'node' holds for 'name', split into
+    // answers, authority and additional exactly like DomainTree.query.
+    // Like it, takes the name in any spelling (see DomainName.canonical).
+    public Result query(int node, CharSequence name, ResourceRecord.Type type, Result result)
+    {
+	result.clear();
+	int owner = symbols.find(DomainName.isCanonical(name) ? name : DomainName.canonical(name));
+	if(owner < 0)
+	    return result;
+
+	int end   = firstRecord[node + 1];
+	int start = firstOwnerRecord(firstRecord[node], end, owner);
+
+	int typeId      = (type == null) ? -1 : type.ordinal();
+	int nsId        = ResourceRecord.Type.NS.ordinal();
+	int cnameId     = ResourceRecord.Type.CNAME.ordinal();
+	int answerCount = 0;
+	int otherCount  = 0;
+	int record      = start;
+	for(; record < end && records.get(record * RecordInts + Owner) == owner; record++)
+	{
+	    int recordType = records.get(record * RecordInts + Type);
+	    if(recordType == typeId)
+	    {
+		result.answers = Result.add(result.answers, result.answerCount++, record);
+		answerCount++;
+	    }
+	    if(recordType == nsId || recordType == cnameId)
+	    {
+		if(recordType != typeId)
+		    result.authority = Result.add(result.authority, result.authorityCount++, record);
+	    }
+	    else
+		otherCount++;
+	}
+
+	boolean delegationType = typeId == nsId || typeId == cnameId;
+	int skipped = delegationType ? 0 : answerCount;
+	if(otherCount > skipped)
+	{
+	    for(int r = start; r < record; r++)
+	    {
+		int recordType = records.get(r * RecordInts + Type);
+		if(recordType != typeId && recordType != nsId && recordType != cnameId)
+		    result.additional = Result.add(result.additional, result.additionalCount++, r);
+	    }
+	}
+	return result;
+    }
+
+    // Allocating convenience with the DomainTree.query contract
+    public Message query(int node, Message request)
+    {
+	if(request.header.method != Message.QueryMethod.ITERATIVE)
+	    return null;
+
+	Result result = query(node, request.question.name, request.question.type, new Result());
+	Message response = new Message();
+	for(int i = 0; i < result.answerCount; i++)
+	    response.answers.add(toResourceRecord(result.answers[i]));
+	for(int i = 0; i < result.authorityCount; i++)
+	    response.authority.add(toResourceRecord(result.authority[i]));
+	for(int i = 0; i < result.additionalCount; i++)
+	    response.additional.add(toResourceRecord(result.additional[i]));
+	return response;
+    }
+
+    // Leftmost record of 'owner' in [low, end), records being grouped by owner id
+    private int firstOwnerRecord(int low, int end, int owner)
+    {
+	int high = end - 1;
+	while(low <= high)
+	{
+	    int middle = (low + high) >>> 1;
+	    if(records.get(middle * RecordInts + Owner) < owner)
+		low = middle + 1;
+	    else
+		high = middle - 1;
+	}
+	return low;
+    }
+
+    // Record indices of one query; keep one per thread and pass it back in
+    // so its arrays are reused
+    public static final class Result
+    {
+	public int[] answers    = new int[4];
+	public int[] authority  = new int[4];
+	public int[] additional = new int[4];
+
+	public int answerCount;
+	public int authorityCount;
+	public int additionalCount;
+
+	void clear()
+	{
+	    answerCount     = 0;
+	    authorityCount  = 0;
+	    additionalCount = 0;
+	}
+
+	private static int[] add(int[] array, int index, int record)
+	{
+	    if(index == array.length)
+		array = Arrays.copyOf(array, 2 * array.length);
+	    array[index] = record;
+	    return array;
+	}
+    }
+}
@@ -0,0 +1,173 @@
+package src;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// The part of the wire front ends (UdpServer, TcpServer) that does not care
+// about the transport: decodes a query, answers it from the CacheServer and
+// encodes the response, both with MessageCodec. Each selector thread owns
+// one, as the query Message and the codec are reused from query to query;
+// on a cache hit nothing is allocated. A response encoded from the cache
+// is kept in the server's ResponseCache, and the next query for the same
+// question is answered with a copy of its bytes. An answer reached through
+// aliases starts with the CNAME records of the chain, as RFC 1034 4.3.2
+// has it.
+// Only single A/AAAA questions of class IN are answered.
+final class DnsResponder
+{
+    // Hands the response to a query that missed the cache to its transport,
+    // from the worker that completed the lookup
+    interface Completion
+    {
+	void complete(Message response);
+    }
+
+    // What answer() did with a query
+    static final int Answered = 0;   // the response is in 'out'
+    static final int Pending  = 1;   // call completeLater() for it
+    static final int Ignored  = 2;   // not a query, nothing to send
+
+    // Codecs of the threads encoding the responses to misses
+    private static final ThreadLocal<MessageCodec> WorkerCodecs =
+	ThreadLocal.withInitial(MessageCodec::new);
+
+    private CacheServer server;
+
+    private MessageCodec        codec   = new MessageCodec();
+    private Message             request = new Message();
+    private IntMap<QuestionKey> keys    = new IntMap<QuestionKey>(1024);  // by name id and type
+
+    private QuestionKey pendingKey;  // of the last query answer() left Pending
+
+    DnsResponder(CacheServer server)
+    {
+	this.server = server;
+    }
+
+    // Answers the query between the position and the limit of 'in'. When
+    // the answer is at hand it is encoded into 'out' from its position, at
+    // most 'limit' bytes of it; otherwise the query is Pending, and the
+    // transport makes its Completion only then, so a hit costs it nothing.
+    int answer(ByteBuffer in, ByteBuffer out, int limit)
+    {
+	pendingKey = null;
+	if(in.remaining() < MessageCodec.HeaderLength)
+	    return Ignored;
+	int responseCode = codec.decode(in, request);
+	if(request.header.response)
+	    return Ignored;  // never answer an answer
+	if(responseCode == MessageCodec.NoError)
+	{
+	    if(request.question.name == null)
+		responseCode = MessageCodec.FormatError;
+	    else if(request.question.type != ResourceRecord.Type.A &&
+		    request.question.type != ResourceRecord.Type.AAAA)
+		responseCode = MessageCodec.NotImplemented;
+	}
+	if(responseCode != MessageCodec.NoError)
+	{
+	    respond(request, responseCode, null, null);
+	    codec.encode(request, out, limit);
+	    return Answered;
+	}
+
+	QuestionKey   key       = questionKey();
+	long          version   = server.getZoneVersion();
+	ResponseCache responses = server.getResponseCache();
+	if(responses.answer(key, request, version, out, limit))
+	    return Answered;
+
+	RRset answer = server.cachedAnswer(key);
+	if(answer != null) // cache-hit
+	{
+	    int start = out.position();
+	    respond(request, MessageCodec.NoError, answer, server.getRotation());
+	    codec.encode(request, out, limit);
+	    // A rotated RRset must be encoded anew for every query
+	    if(answer.size() == 1 || server.getRotation() == RRset.Rotation.NONE)
+		responses.put(key, request, version, codec, out, start, server.answerTimeToLive(key));
+	    return Answered;
+	}
+
+	pendingKey = key;
+	return Pending;
+    }
+
+    // Looks up the query answer() just left Pending; 'later' gets the
+    // response from the worker that completes the lookup
+    void completeLater(Completion later)
+    {
+	if(pendingKey == null)
+	    throw new IllegalStateException("No query is pending");
+
+	// The completion works on its own copy of the query
+	Message pending = new Message();
+	pending.header.id     = request.header.id;
+	pending.header.method = request.header.method;
+	pending.question.name = request.question.name;
+	pending.question.type = request.question.type;
+	RRset.Rotation rotation = server.getRotation();
+
+	server.lookupAnswer(pendingKey).whenComplete((rrset, error) ->
+	{
+	    if(error != null)
+		respond(pending, MessageCodec.ServerFailure, null, rotation);
+	    else
+		respond(pending, MessageCodec.NoError, rrset, rotation);
+	    later.complete(pending);
+	});
+	pendingKey = null;
+    }
+
+    // For completions: encodes with the calling thread's codec
+    static void encode(Message response, ByteBuffer out, int limit)
+    {
+	WorkerCodecs.get().encode(response, out, limit);
+    }
+
+    // Keys of names the zone knows are made once and reused
+    private QuestionKey questionKey()
+    {
+	int nameId = SymbolTable.Shared.find(request.question.name);
+	if(nameId < 0)
+	    return new QuestionKey(request.question.name, request.question.type);
+
+	int slot = 2 * nameId + ((request.question.type == ResourceRecord.Type.AAAA) ? 1 : 0);
+	QuestionKey key = keys.get(slot);
+	if(key == null)
+	{
+	    key = new QuestionKey(SymbolTable.Shared.symbol(nameId), request.question.type);
+	    keys.put(slot, key);
+	}
+	return key;
+    }
+
+    // Turns a decoded query into its response: the aliases of 'answer'
+    // first, then its records, rotated. The cache answers a name it could
+    // not find with one UNSET record.
+    private static void respond(Message message, int responseCode, RRset answer,
+				RRset.Rotation rotation)
+    {
+	message.header.response  = true;
+	message.header.truncated = false;
+	message.answers.clear();
+	message.authority.clear();
+	message.additional.clear();
+
+	if(answer != null)
+	{
+	    List<ResourceRecord> records = answer.rotate(rotation);
+	    if(records.size() == 1 && records.get(0).type == ResourceRecord.Type.UNSET)
+		responseCode = MessageCodec.NameError;
+	    else
+	    {
+		List<ResourceRecord> aliases = answer.getAliases();
+		for(int i = 0; i < aliases.size(); i++)
+		    message.answers.add(aliases.get(i));
+		for(int i = 0; i < records.size(); i++)
+		    message.answers.add(records.get(i));
+	    }
+	}
+	message.header.responseCode = responseCode;
+    }
+}
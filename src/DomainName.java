@@ -0,0 +1,257 @@
+package src;
+
+import java.util.Arrays;
+
+// A domain name held as one char buffer plus the offsets of its labels,
+// root-most label first like the rest of the tree (".com.amazon.www").
+// Meant to be reused: set(), appendLabel() and truncate() work in place, so
+// a lookup can parse a name once and then look at its labels or its
+// parent zones without creating a String for any of them.
+// Comparison and hashing ignore ASCII case, as DNS does.
+public final class DomainName implements CharSequence
+{
+    private char[] chars;
+    private int    length;
+
+    private int[] labelStart;
+    private int[] labelEnd;
+    private int   labelCount;
+
+    private int hash;  // 0 until computed, reset by every change
+
+    public DomainName()
+    {
+	this.chars      = new char[64];
+	this.labelStart = new int[8];
+	this.labelEnd   = new int[8];
+    }
+
+    public DomainName(CharSequence name)
+    {
+	this();
+	set(name);
+    }
+
+    // Copy that does not share buffers, for use as a stored map key
+    public DomainName copy()
+    {
+	DomainName copy = new DomainName();
+	copy.chars      = Arrays.copyOf(chars, Math.max(1, length));
+	copy.length     = length;
+	copy.labelStart = Arrays.copyOf(labelStart, Math.max(1, labelCount));
+	copy.labelEnd   = Arrays.copyOf(labelEnd, Math.max(1, labelCount));
+	copy.labelCount = labelCount;
+	copy.hash       = hash;
+	return copy;
+    }
+
+    public DomainName clear()
+    {
+	length     = 0;
+	labelCount = 0;
+	hash       = 0;
+	return this;
+    }
+
+    // Parses a dotted name; empty labels are dropped, as DomainTree.getSubtree does
+    public DomainName set(CharSequence name)
+    {
+	clear();
+	int nameLength = name.length();
+	int start      = 0;
+	while(start < nameLength)
+	{
+	    int end = start;
+	    while(end < nameLength && name.charAt(end) != '.')
+		end++;
+	    if(end > start)
+		appendLabel(name, start, end);
+	    start = end + 1;
+	}
+	return this;
+    }
+
+    // Adds '.' + text[start, end) below the current name
+    public DomainName appendLabel(CharSequence text, int start, int end)
+    {
+	int labelLength = end - start;
+	ensureChars(length + 1 + labelLength);
+	if(labelCount == labelStart.length)
+	{
+	    labelStart = Arrays.copyOf(labelStart, 2 * labelCount);
+	    labelEnd   = Arrays.copyOf(labelEnd, 2 * labelCount);
+	}
+
+	chars[length++] = '.';
+	labelStart[labelCount] = length;
+	for(int i = start; i < end; i++)
+	    chars[length++] = text.charAt(i);
+	labelEnd[labelCount] = length;
+	labelCount++;
+	hash = 0;
+	return this;
+    }
+
+    public DomainName appendLabel(CharSequence label)
+    {
+	return appendLabel(label, 0, label.length());
+    }
+
+    // Keeps the first 'labels' labels, i.e. moves up to an enclosing zone
+    public DomainName truncate(int labels)
+    {
+	if(labels < labelCount)
+	{
+	    labelCount = Math.max(0, labels);
+	    length     = (labelCount == 0) ? 0 : labelEnd[labelCount - 1];
+	    hash       = 0;
+	}
+	return this;
+    }
+
+    public int getLabelCount()
+    {
+	return labelCount;
+    }
+
+    public int getLabelStart(int label)
+    {
+	return labelStart[label];
+    }
+
+    public int getLabelEnd(int label)
+    {
+	return labelEnd[label];
+    }
+
+    public boolean equalsIgnoreCase(CharSequence other)
+    {
+	if(other.length() != length)
+	    return false;
+	for(int i = 0; i < length; i++)
+	{
+	    if(lower(chars[i]) != lower(other.charAt(i)))
+		return false;
+	}
+	return true;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+	if(this == o)
+	    return true;
+	if(!(o instanceof DomainName))
+	    return false;
+	DomainName other = (DomainName) o;
+	return hashCode() == other.hashCode() && equalsIgnoreCase(other);
+    }
+
+    @Override
+    public int hashCode()
+    {
+	int h = hash;
+	if(h == 0)
+	{
+	    for(int i = 0; i < length; i++)
+		h = 31 * h + lower(chars[i]);
+	    hash = h;
+	}
+	return h;
+    }
+
+    @Override
+    public int length()
+    {
+	return length;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+	return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+	return new String(chars, start, end - start);
+    }
+
+    @Override
+    public String toString()
+    {
+	return new String(chars, 0, length);
+    }
+
+    // Canonical text form used for every lookup and cache key: lower case,
+    // absolute with a leading dot (".com.amazon.www"), no empty labels, and
+    // "" for the root. A name already in that form is returned as is.
+    public static String canonical(CharSequence name)
+    {
+	if(name instanceof String && isCanonical(name))
+	    return (String) name;
+
+	StringBuilder out = new StringBuilder(name.length() + 1);
+	int length = name.length();
+	int start  = 0;
+	while(start < length)
+	{
+	    int end = start;
+	    while(end < length && name.charAt(end) != '.')
+		end++;
+	    if(end > start)
+	    {
+		out.append('.');
+		for(int i = start; i < end; i++)
+		    out.append(lower(name.charAt(i)));
+	    }
+	    start = end + 1;
+	}
+	return out.toString();
+    }
+
+    public static boolean isCanonical(CharSequence name)
+    {
+	int length = name.length();
+	if(length == 0)
+	    return true;
+	if(name.charAt(0) != '.' || name.charAt(length - 1) == '.')
+	    return false;
+	for(int i = 1; i < length; i++)
+	{
+	    char c = name.charAt(i);
+	    if((c == '.' && name.charAt(i - 1) == '.') || (c >= 'A' && c <= 'Z'))
+		return false;
+	}
+	return true;
+    }
+
+    // Allocates only when there is an upper case letter to fold
+    static String toLowerCase(String text)
+    {
+	for(int i = 0; i < text.length(); i++)
+	{
+	    char c = text.charAt(i);
+	    if(c >= 'A' && c <= 'Z')
+	    {
+		char[] chars = text.toCharArray();
+		for(int j = i; j < chars.length; j++)
+		    chars[j] = lower(chars[j]);
+		return new String(chars);
+	    }
+	}
+	return text;
+    }
+
+    static char lower(char c)
+    {
+	return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private void ensureChars(int capacity)
+    {
+	if(capacity > chars.length)
+	    chars = Arrays.copyOf(chars, Math.max(capacity, 2 * chars.length));
+    }
+}
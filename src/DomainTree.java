@@ -2,39 +2,54 @@ package src;
 
 import java.util.List;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import java.io.IOException;
-import java.io.File;
-
-import java.nio.file.Files;
-import java.nio.charset.Charset;
 
 public class DomainTree
 {
-    public String label;
+    public String label;           // read-only, rename through setLabel(); as spelled
+    private int labelId;           // SymbolTable.Shared id of label, -1 for the root
     private DomainTree parent;
-    private ArrayList<DomainTree> subtrees;
+    private ArrayList<DomainTree> subtrees;    // insertion order, as shown by the GUI
+    private IntMap<DomainTree>    subtreeIndex; // label id -> child, built only once the node grows wide
+
+    // Below this many children a linear scan is cheaper than hashing
+    private static final int IndexThreshold = 8;
+
+    // Bounds of a RECURSIVE query: aliases followed and servers asked
+    public static final int MaxAliasChain = 8;
+    public static final int MaxReferrals  = 64;
 
     private ArrayList<ResourceRecord> rrs;
+    private volatile IntMap<OwnerRecords> recordIndex; // owner id -> records, built on first query
+
+    // Counts the changes made anywhere in a tree (records, domains, labels),
+    // kept on its root; what was cached from an older version is stale
+    private volatile long version;
+    private static final AtomicLongFieldUpdater<DomainTree> Version =
+	AtomicLongFieldUpdater.newUpdater(DomainTree.class, "version");
 
     public DomainTree()
     {
     	this.label    = null;
+    	this.labelId  = -1;
     	this.subtrees = new ArrayList<DomainTree>();
     	this.rrs      = new ArrayList<ResourceRecord>();
     }
 
     public DomainTree(String label)
     {
-	this.label    = label;
+	internLabel(label);
 	this.subtrees = new ArrayList<DomainTree>();
 	this.rrs      = new ArrayList<ResourceRecord>();
     }
 
     public DomainTree(String label, DomainTree parent)
     {
-	this.label    = label;
+	internLabel(label);
 	this.parent   = parent;
 	this.subtrees = new ArrayList<DomainTree>();
 	this.rrs      = new ArrayList<ResourceRecord>();
@@ -42,125 +57,179 @@ public class DomainTree
 
     public static DomainTree fromFile(String filename) throws IOException
     {
-	List<String> lines = Files.readAllLines(new File(filename).toPath(), Charset.forName("UTF-8"));
-	DomainTree root = new DomainTree();
-	for(String line : lines)
-	{
-	    String[] domains  = line.split("\\.");
-	    DomainTree cursor = root;
-	    for(String domain : domains)
-	    {
-		boolean exists = false;
-		for(DomainTree subtree : cursor.subtrees)
-		{
-		    if(subtree.label.equals(domain))
-		    {
-			cursor = subtree;
-			exists = true;
-			break;
-		    }
-		}
-		if(!exists)
-		    cursor = cursor.addDomain(domain);
-	    }
-	}
-	return root;
+	return new ZoneLoader().loadDomains(filename);
     }
 
     public void loadResourceRecords(String filename) throws IOException
     {
-	List<String> lines = Files.readAllLines(new File(filename).toPath(), Charset.forName("UTF-8"));
-
-	String lastOwner = "";
-	for(String line : lines)
-        {
-	    line = line.trim().replaceAll("([ \t]+)", " ");
-
-	    String[] tokens = line.split(" ");
-	    // trueOwner owns the rr in the domain space
-	    if(tokens.length == 5)
-	    {
-		String trueOwner = tokens[0];
-		String owner = lastOwner;
-		int TTL      = Integer.parseInt(tokens[1]);
-		ResourceRecord.Type type = ResourceRecord.
-		    Type.fromString(tokens[2]);
-	        String rdata = tokens[4];
-		addResourceRecord(trueOwner,
-				  new ResourceRecord(owner,
-						     type,
-						     TTL,
-						     rdata));
-	    }
-	    else if(tokens.length == 6)
-	    {
-		String trueOwner = tokens[0];
-		String owner = tokens[1];
-		int TTL      = Integer.parseInt(tokens[2]);
-		ResourceRecord.Type type = ResourceRecord.Type.fromString(tokens[3]);
-	        String rdata = tokens[5];
-		addResourceRecord(trueOwner,
-				  new ResourceRecord(owner,
-						     type,
-						     TTL,
-						     rdata));
-		lastOwner = owner;
-	    }
-	}
+	new ZoneLoader().loadRecords(this, filename);
     }
 
-    private void addResourceRecord(String where, ResourceRecord rr)
+    private void internLabel(String label)
     {
-	if(where.equals("."))
+	if(label == null)
 	{
-	    this.rrs.add(rr);
+	    this.label   = null;
+	    this.labelId = -1;
 	    return;
-        }
-	String[] domains = where.split("\\.");
-	int index = 0;
-	// don't care if it's absolute domain address
-	if(domains[0].isEmpty())
-	    index = 1;
-	// @Todo change with getSubtree()
-	DomainTree cursor = this;
-	while(index < domains.length)
-	{
-	    String domain = domains[index];
-
-	    boolean exists = false;
-	    for(DomainTree child : cursor.subtrees)
-	    {
-		if(child.label.equals(domain))
-		{
-		    cursor = child;
-		    exists = true;
-		    break;
-		}
-	    }
-
-	    if(!exists)
-		return;
-
-	    index++;
 	}
-	cursor.rrs.add(rr);
+	// Lookups go by labelId, which folds case; the label itself keeps the
+	// spelling it was given, and is the shared symbol when that matches
+	this.labelId = SymbolTable.Shared.intern(label);
+	String symbol = SymbolTable.Shared.symbol(labelId);
+	this.label   = symbol.equals(label) ? symbol : label;
+    }
+
+    void addResourceRecord(String where, ResourceRecord rr)
+    {
+	DomainTree node = getSubtree(where);
+	if(node != null)
+	    node.appendRecord(rr);
     }
 
     public void addResourceRecords(List<ResourceRecord> rrs)
     {
       for(ResourceRecord rr : rrs)
       {
-        rrs.add(rr);
+	appendRecord(rr);
       }
     }
 
+    public void setResourceRecords(List<ResourceRecord> rrs)
+    {
+	this.rrs.clear();
+	this.recordIndex = null;
+	changed();
+	addResourceRecords(rrs);
+    }
+
+    private void appendRecord(ResourceRecord rr)
+    {
+	rr.intern();
+	rrs.add(rr);
+	if(recordIndex != null)
+	    indexRecord(recordIndex, rr);
+	changed();
+    }
+
+    // Version of the tree this node is in, see 'version'
+    public long getVersion()
+    {
+	return getRoot().version;
+    }
+
+    private void changed()
+    {
+	Version.incrementAndGet(getRoot());
+    }
+
+    private DomainTree getRoot()
+    {
+	DomainTree root = this;
+	while(root.parent != null)
+	    root = root.parent;
+	return root;
+    }
+
+    private static void indexRecord(IntMap<OwnerRecords> index, ResourceRecord rr)
+    {
+	OwnerRecords owned = index.get(rr.getOwnerId());
+	if(owned == null)
+	{
+	    owned = new OwnerRecords();
+	    index.put(rr.getOwnerId(), owned);
+	}
+	owned.add(rr);
+    }
+
+    private IntMap<OwnerRecords> getRecordIndex()
+    {
+	IntMap<OwnerRecords> index = recordIndex;
+	if(index == null)
+	{
+	    // Built aside and published whole, concurrent queries may race to
+	    // build it but never see a half-filled map
+	    index = new IntMap<OwnerRecords>(rrs.size());
+	    for(ResourceRecord rr : rrs)
+		indexRecord(index, rr);
+	    recordIndex = index;
+	}
+	return index;
+    }
+
     public DomainTree addDomain(String domain)
     {
 	DomainTree subtree = new DomainTree(domain, this);
 	subtrees.add(subtree);
+	if(subtreeIndex != null)
+	    subtreeIndex.putIfAbsent(subtree.labelId, subtree);
+	else if(subtrees.size() > IndexThreshold)
+	    buildSubtreeIndex();
+	changed();
 	return subtree;
     }
 
+    public void setLabel(String label)
+    {
+	int oldLabelId = this.labelId;
+	internLabel(label);
+	if(parent != null && parent.subtreeIndex != null)
+	{
+	    parent.unindexSubtree(this, oldLabelId);
+	    parent.subtreeIndex.putIfAbsent(labelId, this);
+	}
+	changed();
+    }
+
+    int getLabelId()
+    {
+	return labelId;
+    }
+
+    DomainTree findSubtree(String label)
+    {
+	return findSubtree(SymbolTable.Shared.find(label));
+    }
+
+    // A label that was never interned cannot name any node
+    DomainTree findSubtree(int labelId)
+    {
+	if(labelId < 0)
+	    return null;
+	if(subtreeIndex != null)
+	    return subtreeIndex.get(labelId);
+	for(DomainTree subtree : subtrees)
+	{
+	    if(subtree.labelId == labelId)
+		return subtree;
+	}
+	return null;
+    }
+
+    private void buildSubtreeIndex()
+    {
+	subtreeIndex = new IntMap<DomainTree>(subtrees.size());
+	for(DomainTree subtree : subtrees)
+	    subtreeIndex.putIfAbsent(subtree.labelId, subtree);  // first match wins, like the scan
+    }
+
+    // Drops 'subtree' from the index, handing its slot to the next sibling
+    // with the same label (if any) so lookups keep their first-match behaviour
+    private void unindexSubtree(DomainTree subtree, int labelId)
+    {
+	if(subtreeIndex.get(labelId) != subtree)
+	    return;
+	subtreeIndex.remove(labelId);
+	for(DomainTree sibling : subtrees)
+	{
+	    if(sibling != subtree && sibling.labelId == labelId)
+	    {
+		subtreeIndex.put(labelId, sibling);
+		break;
+	    }
+	}
+    }
+
     public List<DomainTree> getSubtrees()
     {
   	   return subtrees;
@@ -180,12 +249,7 @@ public class DomainTree
 
     public String getDomainAddress(boolean reversed)
     {
-	if(parent == null)
-	    return "";
-	if(!reversed)
-	    return parent.getDomainAddress(reversed) + "." + label;
-	else
-	    return label + "." + parent.getDomainAddress(reversed);
+	return appendDomainAddress(new StringBuilder(64), reversed).toString();
     }
 
     public String getDomainAddress()
@@ -193,78 +257,198 @@ public class DomainTree
 	return getDomainAddress(false);
     }
 
+    // ".com.amazon.www", or "www.amazon.com." when reversed, written
+    // straight into 'out'
+    public StringBuilder appendDomainAddress(StringBuilder out, boolean reversed)
+    {
+	if(!reversed)
+	{
+	    if(parent != null)
+		parent.appendDomainAddress(out, false).append('.').append(label);
+	    return out;
+	}
+	for(DomainTree cursor = this; cursor.parent != null; cursor = cursor.parent)
+	    out.append(cursor.label).append('.');
+	return out;
+    }
+
     public DomainTree getParent()
     {
       return parent;
     }
 
-    public ArrayList<ResourceRecord> getResourceRecords()
+    // Read-only: edits must go through the tree so the record index stays valid
+    public List<ResourceRecord> getResourceRecords()
     {
-      return rrs;
+      return Collections.unmodifiableList(rrs);
     }
 
+    // Labels are resolved to symbol ids in place, without splitting the
+    // address; empty labels are skipped
     public DomainTree getSubtree(String domainAddress)
     {
-	String[] domains = domainAddress.split("\\.");
-
 	DomainTree cursor = this;
-	for(String domain : domains)
+	int length = domainAddress.length();
+	int start  = 0;
+	while(start < length)
 	{
-	    // @Temp
-	    if(domain.isEmpty())
-		continue;
-	    boolean found = false;
-	    for(DomainTree subtree : cursor.subtrees)
+	    int end = domainAddress.indexOf('.', start);
+	    if(end < 0)
+		end = length;
+	    if(end > start)
 	    {
-		if(subtree.label.equals(domain))
-		{
-		    cursor = subtree;
-		    found  = true;
-		    break;
-		}
+		cursor = cursor.findSubtree(SymbolTable.Shared.find(domainAddress, start, end));
+		if(cursor == null)
+		    return null;
 	    }
-	    if(!found)
-		return null;
+	    start = end + 1;
 	}
 	return cursor;
     }
 
+    // ITERATIVE: what this server holds for the question; its type in the
+    // answers, the delegations (NS, CNAME) in authority, the rest additional.
+    // RECURSIVE: the walk a resolver would make from this server, done here
+    // without a Message per hop. The answers are the records of the
+    // question's type found at the end, the authority section the NS and
+    // CNAME records followed to get there (the referral trail), in order.
     public Message query(Message request)
     {
 	if(request.header.method == Message.QueryMethod.ITERATIVE)
 	{
-	    System.out.println("Responding...");
 	    Message response = new Message();
 
-	    String requestedAddress = request.question.name;
-	    System.out.println("RR array size: " + rrs.size());
-	    for(ResourceRecord rr : rrs)
+	    int owner = SymbolTable.Shared.find(DomainName.canonical(request.question.name));
+	    OwnerRecords owned = getRecordIndex().get(owner);
+	    if(owned != null)
+		owned.collect(request.question.type, response);
+
+	    return response;
+	}
+	if(request.header.method == Message.QueryMethod.RECURSIVE)
+	{
+	    Message response = new Message();
+	    resolve(List.of(DomainName.canonical(request.question.name)), request.question.type,
+		    response, null);
+	    return response;
+	}
+	return null;
+    }
+
+    // Same order as CacheServer's walk: the servers pointed to are a stack,
+    // each asked for the question's names (the question and the aliases it
+    // is already known to lead to) and the aliases found so far, and the
+    // walk ends once a server has answered. Delegates are found by label
+    // from the root; a cycle of NS records ends at MaxReferrals. An alias
+    // to a name already asked for is a loop and is not followed, nor is
+    // any once there are MaxAliasChain of them. 'delegates' (when given)
+    // gets the node each NS record of the trail led to, in trail order.
+    void resolve(List<String> question, ResourceRecord.Type type,
+		 Message response, List<DomainTree> delegates)
+    {
+	DomainTree            root        = getRoot();
+	ArrayList<DomainTree> authorities = new ArrayList<>();
+	ArrayList<String>     names       = new ArrayList<>();
+	authorities.add(this);
+	names.addAll(question);
+
+	for(int referrals = 0; referrals < MaxReferrals && !authorities.isEmpty() &&
+		response.answers.isEmpty(); referrals++)
+	{
+	    IntMap<OwnerRecords> index = authorities.remove(authorities.size() - 1).getRecordIndex();
+	    int known = names.size();  // aliases found here are asked from the next server on
+	    for(int i = 0; i < known; i++)
 	    {
-		if(rr.owner.equals(requestedAddress))
+		OwnerRecords owned = index.get(SymbolTable.Shared.find(names.get(i)));
+		if(owned == null)
+		    continue;
+
+		ArrayList<ResourceRecord> answers = (type == null) ? null : owned.byType.get(type);
+		if(answers != null)
+		    response.answers.addAll(answers);
+		for(ResourceRecord rr : owned.delegations)
 		{
-		    if(rr.type == request.question.type)
+		    if(rr.type == type)
+			continue;  // an answer, not a way to one
+		    if(rr.type == ResourceRecord.Type.NS)
 		    {
-			 // @WhatIf there are multiple address for the given domain address
-			response.answers.add(rr);
+			DomainTree delegate = root.getSubtree(rr.rdata);
+			if(delegate == null)
+			    continue;
+			authorities.add(delegate);
+			if(delegates != null)
+			    delegates.add(delegate);
 		    }
-		    else if(rr.type == ResourceRecord.Type.NS ||
-			    rr.type == ResourceRecord.Type.CNAME)
+		    else
 		    {
-			response.authority.add(rr);
+			if(names.contains(rr.rdata) || names.size() > MaxAliasChain)
+			    continue;
+			names.add(rr.rdata);
 		    }
-		    // Implement CNAME
-		    else
-			response.additional.add(rr);
-		    System.out.println("Found " + rr.type);
+		    response.authority.add(rr);
 		}
 	    }
-
-	    return response;
 	}
-	return null;
     }
 
 
+    // Records of a single owner, split the same way query() splits a response.
+    // Every list keeps load order so responses come out as the old linear scan
+    // produced them.
+    private static class OwnerRecords
+    {
+	private EnumMap<ResourceRecord.Type, ArrayList<ResourceRecord>> byType =
+	    new EnumMap<ResourceRecord.Type, ArrayList<ResourceRecord>>(ResourceRecord.Type.class);
+	private ArrayList<ResourceRecord> delegations = new ArrayList<>(); // NS and CNAME
+	private ArrayList<ResourceRecord> others      = new ArrayList<>(); // everything else
+
+	void add(ResourceRecord rr)
+	{
+	    ArrayList<ResourceRecord> sameType = byType.get(rr.type);
+	    if(sameType == null)
+	    {
+		sameType = new ArrayList<ResourceRecord>();
+		byType.put(rr.type, sameType);
+	    }
+	    sameType.add(rr);
+
+	    if(rr.type == ResourceRecord.Type.NS ||
+	       rr.type == ResourceRecord.Type.CNAME)
+		delegations.add(rr);
+	    else
+		others.add(rr);
+	}
+
+	void collect(ResourceRecord.Type type, Message response)
+	{
+	    ArrayList<ResourceRecord> answers = (type == null) ? null : byType.get(type);
+	    int answerCount = 0;
+	    if(answers != null)
+	    {
+		response.answers.addAll(answers);
+		answerCount = answers.size();
+	    }
+
+	    for(ResourceRecord rr : delegations)
+	    {
+		if(rr.type != type)
+		    response.authority.add(rr);
+	    }
+
+	    boolean delegationType = type == ResourceRecord.Type.NS ||
+				     type == ResourceRecord.Type.CNAME;
+	    int skipped = delegationType ? 0 : answerCount;
+	    if(others.size() > skipped)
+	    {
+		for(ResourceRecord rr : others)
+		{
+		    if(rr.type != type)
+			response.additional.add(rr);
+		}
+	    }
+	}
+    }
+
     public boolean removeDomain(DomainTree e)
     {
       int i = 0;
@@ -277,8 +461,12 @@ public class DomainTree
         if(e == subtrees.get(i))
         {
           subtrees.remove(i);
+          if(subtreeIndex != null)
+            unindexSubtree(e, e.labelId);
+          changed();
           return true;
         }
+        i++;
       }
       return false;
     }
@@ -0,0 +1,196 @@
+package src;
+
+import java.lang.reflect.Method;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Decides where CacheServer and Resolver run their lookups.
+// Every strategy reports how many tasks are waiting and how many are running.
+public abstract class ExecutionStrategy implements Executor
+{
+    public abstract int getQueueDepth();
+    public abstract int getActiveWorkers();
+
+    public void shutdown()
+    {
+    }
+
+    public static ExecutionStrategy defaultStrategy()
+    {
+	return boundedPool(Runtime.getRuntime().availableProcessors(), 4096);
+    }
+
+    // Fixed number of workers behind a bounded queue. Once the queue is full
+    // the submitting thread runs the task itself, which slows producers down
+    // instead of piling up threads or dropping lookups.
+    public static ExecutionStrategy boundedPool(int workers, int queueCapacity)
+    {
+	return new BoundedPool(workers, queueCapacity);
+    }
+
+    // One virtual thread per task when the JDK has them (21+), otherwise
+    // falls back to a bounded pool sized on the available processors
+    public static ExecutionStrategy virtualThreads()
+    {
+	try
+	{
+	    Method factory = java.util.concurrent.Executors.class
+		.getMethod("newVirtualThreadPerTaskExecutor");
+	    return new VirtualThreads((ExecutorService) factory.invoke(null));
+	}
+	catch(ReflectiveOperationException roe)
+	{
+	    return defaultStrategy();
+	}
+    }
+
+    // The old behaviour: a brand new platform thread for every task
+    public static ExecutionStrategy threadPerTask()
+    {
+	return new ThreadPerTask();
+    }
+
+    private static class BoundedPool extends ExecutionStrategy
+    {
+	private ThreadPoolExecutor pool;
+
+	public BoundedPool(int workers, int queueCapacity)
+	{
+	    this.pool = new ThreadPoolExecutor(workers, workers,
+					       0L, TimeUnit.MILLISECONDS,
+					       new ArrayBlockingQueue<Runnable>(queueCapacity),
+					       new DaemonThreadFactory("dotoip-worker-"),
+					       new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	@Override
+	public void execute(Runnable task)
+	{
+	    pool.execute(task);
+	}
+
+	@Override
+	public int getQueueDepth()
+	{
+	    return pool.getQueue().size();
+	}
+
+	@Override
+	public int getActiveWorkers()
+	{
+	    return pool.getActiveCount();
+	}
+
+	@Override
+	public void shutdown()
+	{
+	    pool.shutdown();
+	}
+    }
+
+    private static class VirtualThreads extends ExecutionStrategy
+    {
+	private ExecutorService executor;
+	private AtomicInteger   active = new AtomicInteger();
+
+	public VirtualThreads(ExecutorService executor)
+	{
+	    this.executor = executor;
+	}
+
+	@Override
+	public void execute(Runnable task)
+	{
+	    executor.execute(() ->
+	    {
+		active.incrementAndGet();
+		try
+		{
+		    task.run();
+		}
+		finally
+		{
+		    active.decrementAndGet();
+		}
+	    });
+	}
+
+	@Override
+	public int getQueueDepth()
+	{
+	    return 0;  // every task gets its own thread straight away
+	}
+
+	@Override
+	public int getActiveWorkers()
+	{
+	    return active.get();
+	}
+
+	@Override
+	public void shutdown()
+	{
+	    executor.shutdown();
+	}
+    }
+
+    private static class ThreadPerTask extends ExecutionStrategy
+    {
+	private AtomicInteger active = new AtomicInteger();
+
+	@Override
+	public void execute(Runnable task)
+	{
+	    Thread worker = new Thread(() ->
+	    {
+		try
+		{
+		    task.run();
+		}
+		finally
+		{
+		    active.decrementAndGet();
+		}
+	    });
+	    active.incrementAndGet();
+	    worker.start();
+	}
+
+	@Override
+	public int getQueueDepth()
+	{
+	    return 0;
+	}
+
+	@Override
+	public int getActiveWorkers()
+	{
+	    return active.get();
+	}
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory
+    {
+	private String        prefix;
+	private AtomicInteger counter = new AtomicInteger();
+
+	public DaemonThreadFactory(String prefix)
+	{
+	    this.prefix = prefix;
+	}
+
+	@Override
+	public Thread newThread(Runnable task)
+	{
+	    Thread thread = new Thread(task, prefix + counter.incrementAndGet());
+	    thread.setDaemon(true);
+	    return thread;
+	}
+    }
+}
@@ -0,0 +1,110 @@
+package src;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Pending results of the blocking, handle based APIs (CacheServer.query,
+// Resolver.ask). Each instance owns its handles: threads take blocks of
+// BlockSize consecutive handles from a shared counter and then hand them
+// out with no synchronization at all, so the counter is touched once per
+// block instead of once per request. Entries are spread over independently
+// locked shards. Handles are non-negative and wrap after 2^31; a handle
+// still pending from the previous round is skipped rather than overwritten.
+final class HandleTable<V>
+{
+    private static final int BlockSize     = 1024;
+    private static final int DefaultShards = 16;
+
+    private final AtomicInteger nextBlock = new AtomicInteger();
+    private final ThreadLocal<int[]> block = ThreadLocal.withInitial(() -> new int[2]); // next, end
+
+    private final Shard<V>[] shards;
+    private final int        shardMask;
+
+    HandleTable()
+    {
+	this(DefaultShards);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    HandleTable(int shardCount)
+    {
+	int count = 1;
+	while(count < shardCount)
+	    count *= 2;
+	this.shards    = (Shard<V>[]) new Shard[count];
+	this.shardMask = count - 1;
+	for(int i = 0; i < count; i++)
+	    shards[i] = new Shard<V>();
+    }
+
+    int register(V value)
+    {
+	while(true)
+	{
+	    int handle = nextHandle();
+	    if(shardFor(handle).putIfAbsent(handle, value))
+		return handle;
+	}
+    }
+
+    // Null when the handle is unknown or was already taken
+    V remove(int handle)
+    {
+	if(handle < 0)
+	    return null;
+	return shardFor(handle).remove(handle);
+    }
+
+    int size()
+    {
+	int size = 0;
+	for(Shard<V> shard : shards)
+	    size += shard.size();
+	return size;
+    }
+
+    private int nextHandle()
+    {
+	int[] range = block.get();
+	if(range[0] == range[1])
+	{
+	    // BlockSize divides 2^31, so a masked block never crosses the wrap
+	    int start = nextBlock.getAndAdd(BlockSize) & Integer.MAX_VALUE;
+	    range[0] = start;
+	    range[1] = start + BlockSize;
+	}
+	return range[0]++;
+    }
+
+    private Shard<V> shardFor(int handle)
+    {
+	// Consecutive handles of one thread land on different shards
+	return shards[handle & shardMask];
+    }
+
+    private static final class Shard<V>
+    {
+	private final IntMap<V> entries = new IntMap<V>(64);
+
+	synchronized boolean putIfAbsent(int handle, V value)
+	{
+	    if(entries.get(handle) != null)
+		return false;
+	    entries.put(handle, value);
+	    return true;
+	}
+
+	synchronized V remove(int handle)
+	{
+	    V value = entries.get(handle);
+	    if(value != null)
+		entries.remove(handle);
+	    return value;
+	}
+
+	synchronized int size()
+	{
+	    return entries.size();
+	}
+    }
+}
@@ -0,0 +1,112 @@
+package src;
+
+import java.util.Arrays;
+
+// Open-addressing map from symbol ids (non-negative ints) to values, so
+// the hot lookups keyed by SymbolTable ids neither box nor hash strings.
+// Not thread-safe; owners publish or guard it themselves.
+final class IntMap<V>
+{
+    private int[]    keys;    // -1 when free
+    private Object[] values;
+    private int      size;
+
+    IntMap(int expected)
+    {
+	int capacity = 8;
+	while(capacity < 2 * expected)
+	    capacity *= 2;
+	keys   = new int[capacity];
+	values = new Object[capacity];
+	Arrays.fill(keys, -1);
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key)
+    {
+	if(key < 0)
+	    return null;
+	int mask = keys.length - 1;
+	for(int slot = mix(key) & mask; keys[slot] >= 0; slot = (slot + 1) & mask)
+	{
+	    if(keys[slot] == key)
+		return (V) values[slot];
+	}
+	return null;
+    }
+
+    void put(int key, V value)
+    {
+	if(2 * (size + 1) > keys.length)
+	    resize(2 * keys.length);
+	int mask = keys.length - 1;
+	int slot = mix(key) & mask;
+	while(keys[slot] >= 0 && keys[slot] != key)
+	    slot = (slot + 1) & mask;
+	if(keys[slot] < 0)
+	    size++;
+	keys[slot]   = key;
+	values[slot] = value;
+    }
+
+    void putIfAbsent(int key, V value)
+    {
+	if(get(key) == null)
+	    put(key, value);
+    }
+
+    void remove(int key)
+    {
+	int mask = keys.length - 1;
+	int slot = mix(key) & mask;
+	while(keys[slot] != key)
+	{
+	    if(keys[slot] < 0)
+		return;
+	    slot = (slot + 1) & mask;
+	}
+	size--;
+
+	// Shift later entries of the probe run back so none becomes unreachable
+	int hole = slot;
+	for(int next = (hole + 1) & mask; keys[next] >= 0; next = (next + 1) & mask)
+	{
+	    int home = mix(keys[next]) & mask;
+	    if(((next - home) & mask) >= ((next - hole) & mask))
+	    {
+		keys[hole]   = keys[next];
+		values[hole] = values[next];
+		hole = next;
+	    }
+	}
+	keys[hole]   = -1;
+	values[hole] = null;
+    }
+
+    int size()
+    {
+	return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize(int capacity)
+    {
+	int[]    oldKeys   = keys;
+	Object[] oldValues = values;
+	keys   = new int[capacity];
+	values = new Object[capacity];
+	Arrays.fill(keys, -1);
+	size = 0;
+	for(int i = 0; i < oldKeys.length; i++)
+	{
+	    if(oldKeys[i] >= 0)
+		put(oldKeys[i], (V) oldValues[i]);
+	}
+    }
+
+    private static int mix(int key)
+    {
+	int hash = key * 0x9e3779b9;
+	return hash ^ (hash >>> 16);
+    }
+}
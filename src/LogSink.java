@@ -0,0 +1,206 @@
+package src;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Asynchronous log for the lookup paths. Callers only enqueue whole entries;
+// a single writer thread drains the queue in batches and appends them to
+// rolling segment files (<prefix>00001.txt, <prefix>00002.txt, ...).
+// When the queue is full entries are dropped rather than blocking a lookup.
+public class LogSink
+{
+    private static volatile boolean enabled = true;
+
+    private String directory;
+    private String prefix;
+    private long   segmentBytes;
+
+    private LinkedBlockingQueue<String> queue;
+    private AtomicLong dropped = new AtomicLong();
+
+    private volatile Thread writerThread;
+    private Writer out;
+    private long   written;
+    private int    segment;
+
+    public static final int  DefaultQueueCapacity = 65536;
+    public static final long DefaultSegmentBytes  = 8L * 1024 * 1024;
+
+    private static final int BatchSize = 512;
+
+    public LogSink(String directory, String prefix)
+    {
+	this(directory, prefix, DefaultQueueCapacity, DefaultSegmentBytes);
+    }
+
+    public LogSink(String directory, String prefix,
+		   int queueCapacity, long segmentBytes)
+    {
+	this.directory    = directory;
+	this.prefix       = prefix;
+	this.segmentBytes = segmentBytes;
+	this.queue        = new LinkedBlockingQueue<String>(queueCapacity);
+    }
+
+    // Global switch, meant for benchmark runs: while off, nothing is queued
+    // and callers checking isEnabled() skip building their entries at all
+    public static void setEnabled(boolean enabled)
+    {
+	LogSink.enabled = enabled;
+    }
+
+    public static boolean isEnabled()
+    {
+	return enabled;
+    }
+
+    public void append(String entry)
+    {
+	if(!enabled)
+	    return;
+	startWriter();
+	if(!queue.offer(entry))
+	    dropped.incrementAndGet();
+    }
+
+    public long getDropped()
+    {
+	return dropped.get();
+    }
+
+    public int getPending()
+    {
+	return queue.size();
+    }
+
+    // Writes out whatever is still queued, from the calling thread
+    public void flush()
+    {
+	ArrayList<String> batch = new ArrayList<>();
+	queue.drainTo(batch);
+	write(batch);
+    }
+
+    private void startWriter()
+    {
+	if(writerThread != null)
+	    return;
+	synchronized(this)
+	{
+	    if(writerThread != null)
+		return;
+	    Thread thread = new Thread(this::drain, "dotoip-log-" + prefix);
+	    thread.setDaemon(true);
+	    thread.start();
+	    Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+	    writerThread = thread;
+	}
+    }
+
+    private void drain()
+    {
+	ArrayList<String> batch = new ArrayList<>(BatchSize);
+	while(true)
+	{
+	    try
+	    {
+		batch.add(queue.take());
+	    }
+	    catch(InterruptedException ie)
+	    {
+		return;
+	    }
+	    queue.drainTo(batch, BatchSize - 1);
+	    write(batch);
+	    batch.clear();
+	}
+    }
+
+    private synchronized void write(ArrayList<String> batch)
+    {
+	if(batch.isEmpty())
+	    return;
+	try
+	{
+	    for(String entry : batch)
+	    {
+		if(out == null || written >= segmentBytes)
+		    roll();
+		out.write(entry);
+		out.write('\n');
+		written += utf8Length(entry) + 1;
+	    }
+	    out.flush();
+	}
+	catch(IOException ie)
+	{
+	    dropped.addAndGet(batch.size());
+	    closeSegment();
+	}
+    }
+
+    // Bytes 'entry' takes in the segment, counted without encoding it
+    private static int utf8Length(String entry)
+    {
+	int length = entry.length();
+	for(int i = 0; i < entry.length(); i++)
+	{
+	    char c = entry.charAt(i);
+	    if(c >= 0x800)
+	    {
+		length += 2;  // a surrogate pair is 4 bytes for its 2 chars
+		if(Character.isHighSurrogate(c))
+		    i++;
+	    }
+	    else if(c >= 0x80)
+		length++;
+	}
+	return length;
+    }
+
+    private void roll() throws IOException
+    {
+	closeSegment();
+
+	File dir = new File(directory);
+	if(!dir.exists())
+	    dir.mkdirs();
+
+	File file;
+	do
+	{
+	    segment++;
+	    file = new File(dir, String.format("%s%05d.txt", prefix, segment));
+	}
+	while(file.exists());
+
+	out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+							 StandardCharsets.UTF_8));
+	written = 0;
+    }
+
+    private void closeSegment()
+    {
+	if(out == null)
+	    return;
+	try
+	{
+	    out.close();
+	}
+	catch(IOException ie)
+	{
+	    // nothing left to do with a broken segment
+	}
+	out = null;
+    }
+}
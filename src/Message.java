@@ -26,9 +26,32 @@ public class Message
 	additional = new ArrayList<ResourceRecord>();	
     }
 
+    // Back to the state of a new Message, keeping the list capacity, so a
+    // front end can decode every packet into the same instance
+    public void clear()
+    {
+	header.id           = 0;
+	header.method       = QueryMethod.ITERATIVE;
+	header.response     = false;
+	header.truncated    = false;
+	header.responseCode = 0;
+	question.name = null;
+	question.type = null;
+
+	answers.clear();
+	authority.clear();
+	additional.clear();
+    }
+
     public class Header
     {
+	public int         id;  // transaction id of a message read from the wire
 	public QueryMethod method = QueryMethod.ITERATIVE;
+
+	// Only meaningful on the wire, see MessageCodec
+	public boolean     response;
+	public boolean     truncated;
+	public int         responseCode;
     }
     
     public class Question
@@ -0,0 +1,592 @@
+package src;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Wire form of a Message (RFC 1035 4.1). Names are root-first in a Message
+// (".com.amazon.www") and host-first on the wire (3www6amazon3com0).
+// encode() compresses names: a name ending in a suffix already written in
+// the message points back to it, so the records answering a question
+// usually spend two bytes on their owner. decode() follows such pointers.
+// An instance keeps its scratch state from call to call, which is how
+// encoding any Message and decoding a query allocate nothing; it is not
+// thread safe, give each thread its own.
+public final class MessageCodec
+{
+    public static final int HeaderLength     = 12;
+    public static final int MaxMessageLength = 65535;
+
+    // Response codes, Message.Header.responseCode
+    public static final int NoError        = 0;
+    public static final int FormatError    = 1;
+    public static final int ServerFailure  = 2;
+    public static final int NameError      = 3;
+    public static final int NotImplemented = 4;
+
+    static final int MaxNameLength = 255;
+    static final int MaxLabel      = 63;
+
+    static final int TypeA     = 1;
+    static final int TypeNS    = 2;
+    static final int TypeCNAME = 5;
+    static final int TypeAAAA  = 28;
+    static final int ClassIn   = 1;
+
+    static final int FlagResponse           = 0x8000;
+    static final int FlagTruncated          = 0x0200;
+    static final int FlagRecursionDesired   = 0x0100;
+    static final int FlagRecursionAvailable = 0x0080;
+
+    private static final int MaxCompressed = 128;  // names remembered per message
+    private static final int MaxPointer    = 0x3fff;
+    private static final int MaxPointers   = 32;   // hops followed in one name
+
+    // Compression: root-first prefixes of the names written so far, as
+    // (name, prefix end), and where their wire form starts
+    private String[] compressedNames = new String[MaxCompressed];
+    private int[]    compressedEnds  = new int[MaxCompressed];
+    private int[]    compressedAt    = new int[MaxCompressed];
+    private int      compressedCount;
+
+    // Where the TTLs of the records last encoded are, from the message start
+    private int[] ttlOffsets = new int[16];
+    private int   ttlCount;
+
+    // Decoding: the labels of the last name read, in wire order
+    private StringBuilder wireName   = new StringBuilder(MaxNameLength);
+    private int[]         wireLabels = new int[MaxNameLength / 2 + 1];
+    private int           wireLabelCount;
+    private DomainName    name       = new DomainName();
+
+    public void encode(Message message, ByteBuffer out)
+    {
+	encode(message, out, MaxMessageLength);
+    }
+
+    // Writes 'message' into 'out' from its position, leaving the position
+    // after it. Records with no wire form are skipped. When the records do
+    // not fit in 'limit' bytes (nor in the buffer) none is written and the
+    // message goes out truncated, with header.truncated set.
+    public void encode(Message message, ByteBuffer out, int limit)
+    {
+	Message.Header header = message.header;
+	int base = out.position();
+	int end  = Math.min(out.limit(), base + Math.min(limit, MaxMessageLength));
+	compressedCount = 0;
+	ttlCount        = 0;
+
+	boolean hasQuestion = message.question.name != null &&
+	    wireType(message.question.type) != 0;
+	out.putShort((short) header.id);
+	out.putShort((short) 0);                                  // flags, set below
+	out.putShort((short) (hasQuestion ? 1 : 0));
+	out.putShort((short) 0);                                  // record counts, set below
+	out.putShort((short) 0);
+	out.putShort((short) 0);
+	if(hasQuestion)
+	{
+	    putName(out, base, message.question.name);
+	    out.putShort((short) wireType(message.question.type));
+	    out.putShort((short) ClassIn);
+	}
+
+	int records = out.position();
+	int answers    = putRecords(out, base, end, message.answers);
+	int authority  = (answers < 0) ? -1 : putRecords(out, base, end, message.authority);
+	int additional = (authority < 0) ? -1 : putRecords(out, base, end, message.additional);
+	if(additional < 0)
+	{
+	    out.position(records);
+	    header.truncated = true;
+	    answers = authority = additional = 0;
+	    ttlCount = 0;
+	}
+
+	int flags = header.responseCode & 0xf;
+	if(header.response)
+	    flags |= FlagResponse | FlagRecursionAvailable;
+	if(header.method == Message.QueryMethod.RECURSIVE)
+	    flags |= FlagRecursionDesired;
+	if(header.truncated)
+	    flags |= FlagTruncated;
+	out.putShort(base + 2,  (short) flags);
+	out.putShort(base + 6,  (short) answers);
+	out.putShort(base + 8,  (short) authority);
+	out.putShort(base + 10, (short) additional);
+    }
+
+    // TTL fields of the message last encoded, for whoever patches its
+    // bytes later (see ResponseCache)
+    int getTtlCount()
+    {
+	return ttlCount;
+    }
+
+    int getTtlOffset(int i)
+    {
+	return ttlOffsets[i];
+    }
+
+    // Reads the message between the position and the limit of 'in' into
+    // 'message', cleared first, and moves the position past it. Returns
+    // NoError, FormatError for a malformed message or NotImplemented for an
+    // opcode other than QUERY (the header is read either way). A question
+    // of a type or class a tree cannot hold gets type UNSET; records of
+    // such types are skipped.
+    public int decode(ByteBuffer in, Message message)
+    {
+	message.clear();
+	int base  = in.position();
+	int limit = in.limit();
+	if(limit - base < HeaderLength)
+	    return FormatError;
+
+	Message.Header header = message.header;
+	int flags = in.getShort(base + 2) & 0xffff;
+	header.id           = in.getShort(base) & 0xffff;
+	header.response     = (flags & FlagResponse) != 0;
+	header.truncated    = (flags & FlagTruncated) != 0;
+	header.responseCode = flags & 0xf;
+	header.method       = ((flags & FlagRecursionDesired) != 0)
+	    ? Message.QueryMethod.RECURSIVE : Message.QueryMethod.ITERATIVE;
+	if(((flags >>> 11) & 0xf) != 0)  // only the standard QUERY opcode
+	    return NotImplemented;
+
+	int questions = in.getShort(base + 4) & 0xffff;
+	if(questions > 1)
+	    return FormatError;  // a Message holds one question
+	int position = base + HeaderLength;
+	if(questions == 1)
+	{
+	    position = readName(in, base, position, limit);
+	    if(position < 0 || position + 4 > limit)
+		return FormatError;
+	    int type  = in.getShort(position) & 0xffff;
+	    int klass = in.getShort(position + 2) & 0xffff;
+	    position += 4;
+
+	    message.question.name = questionName();
+	    message.question.type = (klass == ClassIn) ? recordType(type) : ResourceRecord.Type.UNSET;
+	}
+
+	position = readRecords(in, base, position, limit, in.getShort(base + 6) & 0xffff, message.answers);
+	position = readRecords(in, base, position, limit, in.getShort(base + 8) & 0xffff, message.authority);
+	position = readRecords(in, base, position, limit, in.getShort(base + 10) & 0xffff, message.additional);
+	if(position < 0)
+	    return FormatError;
+	in.position(position);
+	return NoError;
+    }
+
+    // Number of records written, -1 when they did not fit
+    private int putRecords(ByteBuffer out, int base, int end, ArrayList<ResourceRecord> records)
+    {
+	int written = 0;
+	for(int i = 0; i < records.size(); i++)
+	{
+	    ResourceRecord rr = records.get(i);
+	    int type = wireType(rr.type);
+	    if(type == 0)
+		continue;
+	    int ownerLength = wireLength(rr.owner);
+	    int dataLength;
+	    switch(rr.type)
+	    {
+		case A:    dataLength = 4;                    break;
+		case AAAA: dataLength = 16;                   break;
+		default:   dataLength = wireLength(rr.rdata); break;
+	    }
+	    if(ownerLength < 0 || dataLength < 0)
+		continue;
+	    // Without compression, so never short
+	    if(out.position() + ownerLength + 10 + dataLength > end)
+		return -1;
+
+	    int mark       = out.position();
+	    int compressed = compressedCount;
+	    putName(out, base, rr.owner);
+	    out.putShort((short) type);
+	    out.putShort((short) ClassIn);
+	    out.putInt(Math.max(0, rr.timeToLive));
+	    int lengthAt = out.position();
+	    out.putShort((short) 0);
+	    boolean ok = true;
+	    switch(rr.type)
+	    {
+		case A:    ok = putIPv4(out, rr.rdata); break;
+		case AAAA: ok = putIPv6(out, rr.rdata); break;
+		default:   putName(out, base, rr.rdata); break;
+	    }
+	    if(!ok)
+	    {
+		// Unreadable address: forget the record and the names it taught
+		out.position(mark);
+		compressedCount = compressed;
+		continue;
+	    }
+	    out.putShort(lengthAt, (short) (out.position() - lengthAt - 2));
+	    if(ttlCount == ttlOffsets.length)
+		ttlOffsets = Arrays.copyOf(ttlOffsets, 2 * ttlCount);
+	    ttlOffsets[ttlCount++] = lengthAt - 4 - base;
+	    written++;
+	}
+	return written;
+    }
+
+    // ".com.amazon.www" as 3www6amazon3com0, or as the labels not written
+    // yet followed by a pointer to the longest suffix that was
+    private void putName(ByteBuffer out, int base, String name)
+    {
+	int matchEnd = 0;
+	int pointer  = -1;
+	for(int end = name.length(); end > 0; end = name.lastIndexOf('.', end - 1))
+	{
+	    pointer = compressed(name, end);
+	    if(pointer >= 0)
+	    {
+		matchEnd = end;
+		break;
+	    }
+	}
+
+	int end = name.length();
+	while(end > matchEnd)
+	{
+	    int dot    = name.lastIndexOf('.', end - 1);
+	    int offset = out.position() - base;
+	    if(offset <= MaxPointer && compressedCount < MaxCompressed)
+	    {
+		compressedNames[compressedCount] = name;
+		compressedEnds[compressedCount]  = end;
+		compressedAt[compressedCount]    = offset;
+		compressedCount++;
+	    }
+	    out.put((byte) (end - dot - 1));
+	    for(int i = dot + 1; i < end; i++)
+		out.put((byte) name.charAt(i));
+	    end = dot;
+	}
+	if(pointer >= 0)
+	    out.putShort((short) (0xc000 | pointer));
+	else
+	    out.put((byte) 0);
+    }
+
+    // Where the root-first prefix name[0, end) was written, -1 if nowhere
+    private int compressed(String name, int end)
+    {
+	for(int i = 0; i < compressedCount; i++)
+	{
+	    if(compressedEnds[i] == end &&
+	       compressedNames[i].regionMatches(true, 0, name, 0, end))
+		return compressedAt[i];
+	}
+	return -1;
+    }
+
+    // Reads 'count' records into 'records'; the position after them, or -1
+    private int readRecords(ByteBuffer in, int base, int position, int limit, int count,
+			    ArrayList<ResourceRecord> records)
+    {
+	for(int i = 0; i < count && position >= 0; i++)
+	{
+	    position = readName(in, base, position, limit);
+	    if(position < 0 || position + 10 > limit)
+		return -1;
+	    int type       = in.getShort(position) & 0xffff;
+	    int klass      = in.getShort(position + 2) & 0xffff;
+	    int ttl        = Math.max(0, in.getInt(position + 4));  // the top bit set means 0
+	    int dataLength = in.getShort(position + 8) & 0xffff;
+	    position += 10;
+	    if(position + dataLength > limit)
+		return -1;
+
+	    ResourceRecord.Type rrType = (klass == ClassIn) ? recordType(type) : ResourceRecord.Type.UNSET;
+	    if(rrType != ResourceRecord.Type.UNSET)
+	    {
+		String owner = treeName();
+		String rdata;
+		switch(rrType)
+		{
+		    case A:
+			if(dataLength != 4)
+			    return -1;
+			rdata = ipv4(in, position);
+			break;
+		    case AAAA:
+			if(dataLength != 16)
+			    return -1;
+			rdata = ipv6(in, position);
+			break;
+		    default:
+			if(readName(in, base, position, position + dataLength) != position + dataLength)
+			    return -1;
+			rdata = treeName();
+			break;
+		}
+		records.add(new ResourceRecord(owner, rrType, ttl, rdata));
+	    }
+	    position += dataLength;
+	}
+	return position;
+    }
+
+    // Reads the name at 'position' into wireName and wireLabels, following
+    // compression pointers (only backwards, so they cannot loop). Returns
+    // the position after the name, or -1 if it is malformed.
+    private int readName(ByteBuffer in, int base, int position, int limit)
+    {
+	wireName.setLength(0);
+	wireLabelCount = 0;
+	int after = -1;  // where the message goes on after the first pointer
+	int hops  = 0;
+	while(true)
+	{
+	    if(position >= limit)
+		return -1;
+	    int length = in.get(position++) & 0xff;
+	    if(length == 0)
+		break;
+	    if((length & 0xc0) == 0xc0)
+	    {
+		if(position >= limit || ++hops > MaxPointers)
+		    return -1;
+		int target = base + (((length & 0x3f) << 8) | (in.get(position++) & 0xff));
+		if(target >= position - 2)
+		    return -1;
+		if(after < 0)
+		    after = position;
+		position = target;
+		limit    = in.limit();
+		continue;
+	    }
+	    if(length > MaxLabel || position + length > limit ||
+	       wireName.length() + wireLabelCount + length + 1 > MaxNameLength)
+		return -1;
+	    wireLabels[wireLabelCount++] = wireName.length();
+	    for(int i = 0; i < length; i++)
+	    {
+		char c = (char) (in.get(position++) & 0xff);
+		if(c == '.')
+		    return -1;  // no way to spell it in the tree
+		wireName.append(c);
+	    }
+	}
+	return (after >= 0) ? after : position;
+    }
+
+    // The name just read, root-most label first, in 'name'
+    private DomainName treeForm()
+    {
+	name.clear();
+	for(int label = wireLabelCount - 1; label >= 0; label--)
+	{
+	    int end = (label + 1 < wireLabelCount) ? wireLabels[label + 1] : wireName.length();
+	    name.appendLabel(wireName, wireLabels[label], end);
+	}
+	return name;
+    }
+
+    private String treeName()
+    {
+	return treeForm().toString();
+    }
+
+    // A name of the zone spelled as the zone does is its interned String,
+    // so a question about it creates none. Any other spelling is kept as
+    // is, the response echoes the question exactly.
+    private String questionName()
+    {
+	DomainName question = treeForm();
+	int id = SymbolTable.Shared.find(question);
+	if(id >= 0)
+	{
+	    String symbol = SymbolTable.Shared.symbol(id);
+	    if(symbol.contentEquals(question))
+		return symbol;
+	}
+	return question.toString();
+    }
+
+    static int wireType(ResourceRecord.Type type)
+    {
+	if(type == null)
+	    return 0;
+	switch(type)
+	{
+	    case A:     return TypeA;
+	    case AAAA:  return TypeAAAA;
+	    case CNAME: return TypeCNAME;
+	    case NS:    return TypeNS;
+	    default:    return 0;
+	}
+    }
+
+    static ResourceRecord.Type recordType(int type)
+    {
+	switch(type)
+	{
+	    case TypeA:     return ResourceRecord.Type.A;
+	    case TypeAAAA:  return ResourceRecord.Type.AAAA;
+	    case TypeCNAME: return ResourceRecord.Type.CNAME;
+	    case TypeNS:    return ResourceRecord.Type.NS;
+	    default:        return ResourceRecord.Type.UNSET;
+	}
+    }
+
+    // Bytes a root-first name takes uncompressed, -1 if it cannot be sent
+    static int wireLength(String name)
+    {
+	int length = 1;
+	int end    = name.length();
+	while(end > 0)
+	{
+	    int dot   = name.lastIndexOf('.', end - 1);
+	    int label = end - dot - 1;
+	    if(label == 0 || label > MaxLabel)
+		return -1;
+	    length += label + 1;
+	    end = dot;
+	}
+	return (length > MaxNameLength) ? -1 : length;
+    }
+
+    static boolean putIPv4(ByteBuffer out, String text)
+    {
+	int parts  = 0;
+	int value  = 0;
+	int digits = 0;
+	for(int i = 0; i < text.length(); i++)
+	{
+	    char c = text.charAt(i);
+	    if(c >= '0' && c <= '9')
+	    {
+		value = 10 * value + (c - '0');
+		if(++digits > 3 || value > 255)
+		    return false;
+	    }
+	    else if(c == '.' && digits > 0 && parts < 3)
+	    {
+		out.put((byte) value);
+		parts++;
+		value  = 0;
+		digits = 0;
+	    }
+	    else
+		return false;
+	}
+	if(digits == 0 || parts != 3)
+	    return false;
+	out.put((byte) value);
+	return true;
+    }
+
+    // Hex groups with at most one "::"; no embedded IPv4 form
+    static boolean putIPv6(ByteBuffer out, String text)
+    {
+	int start  = out.position();
+	int length = text.length();
+	int groups = 0;
+	int gap    = -1;  // groups written before the "::"
+	int i      = 0;
+	if(text.startsWith("::"))
+	{
+	    gap = 0;
+	    i   = 2;
+	}
+	while(i < length)
+	{
+	    int value  = 0;
+	    int digits = 0;
+	    int digit;
+	    while(i < length && (digit = Character.digit(text.charAt(i), 16)) >= 0)
+	    {
+		value = 16 * value + digit;
+		if(++digits > 4)
+		    return false;
+		i++;
+	    }
+	    if(digits == 0 || groups == 8)
+		return false;
+	    out.putShort((short) value);
+	    groups++;
+	    if(i == length)
+		break;
+	    if(text.charAt(i++) != ':' || i == length)
+		return false;
+	    if(text.charAt(i) == ':')
+	    {
+		if(gap >= 0)
+		    return false;
+		gap = groups;
+		i++;
+	    }
+	}
+	if(gap < 0)
+	    return groups == 8;
+	if(groups == 8)
+	    return false;
+
+	// Slide the groups after the "::" to the end and zero what they leave
+	int zeroBytes = 2 * (8 - groups);
+	int tail      = start + 2 * gap;
+	for(int b = 2 * (groups - gap) - 1; b >= 0; b--)
+	    out.put(tail + zeroBytes + b, out.get(tail + b));
+	for(int b = 0; b < zeroBytes; b++)
+	    out.put(tail + b, (byte) 0);
+	out.position(start + 16);
+	return true;
+    }
+
+    private static String ipv4(ByteBuffer in, int position)
+    {
+	StringBuilder text = new StringBuilder(15);
+	for(int i = 0; i < 4; i++)
+	{
+	    if(i > 0)
+		text.append('.');
+	    text.append(in.get(position + i) & 0xff);
+	}
+	return text.toString();
+    }
+
+    // Lower case hex groups, the longest run of two or more zero groups
+    // written as "::" (RFC 5952)
+    private static String ipv6(ByteBuffer in, int position)
+    {
+	int[] groups = new int[8];
+	for(int i = 0; i < 8; i++)
+	    groups[i] = in.getShort(position + 2 * i) & 0xffff;
+
+	int gapStart  = -1;
+	int gapLength = 1;
+	for(int i = 0; i < 8; )
+	{
+	    int run = 0;
+	    while(i + run < 8 && groups[i + run] == 0)
+		run++;
+	    if(run > gapLength)
+	    {
+		gapStart  = i;
+		gapLength = run;
+	    }
+	    i += Math.max(1, run);
+	}
+
+	StringBuilder text = new StringBuilder(39);
+	for(int i = 0; i < 8; i++)
+	{
+	    if(i == gapStart)
+	    {
+		text.append("::");
+		i += gapLength - 1;
+		continue;
+	    }
+	    if(text.length() > 0 && text.charAt(text.length() - 1) != ':')
+		text.append(':');
+	    text.append(Integer.toHexString(groups[i]));
+	}
+	return text.toString();
+    }
+}
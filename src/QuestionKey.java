@@ -0,0 +1,53 @@
+package src;
+
+// A (name, type) question, used to key lookups that must not be repeated.
+// The hash is computed once since these keys are probed on every query.
+// It uses the type's ordinal, not its identity hash, so cache segments are
+// the same from run to run.
+// The name is kept in canonical form (see DomainName.canonical), so
+// "com.Amazon.WWW" and ".com.amazon.www" are the same question.
+// Names known to the shared symbol table compare by id; the hash stays the
+// string's so a key built before and after its name was interned still match.
+public final class QuestionKey
+{
+    public final String              name;
+    public final ResourceRecord.Type type;
+
+    private final int hash;
+    private final int nameId;  // SymbolTable.Shared id, -1 when not interned
+
+    public QuestionKey(String name, ResourceRecord.Type type)
+    {
+	this.name = DomainName.canonical(name);
+	this.type = type;
+	this.hash = 31 * this.name.hashCode() + (type == null ? 0 : type.ordinal() + 1);
+	this.nameId = SymbolTable.Shared.find(this.name);
+    }
+
+    @Override
+    public int hashCode()
+    {
+	return hash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+	if(this == o)
+	    return true;
+	if(!(o instanceof QuestionKey))
+	    return false;
+	QuestionKey other = (QuestionKey) o;
+	if(hash != other.hash || type != other.type)
+	    return false;
+	if(nameId >= 0 && other.nameId >= 0)
+	    return nameId == other.nameId;
+	return name.equals(other.name);
+    }
+
+    @Override
+    public String toString()
+    {
+	return name + " " + type;
+    }
+}
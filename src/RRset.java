@@ -0,0 +1,138 @@
+package src;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ThreadLocalRandom;
+
+// All records answering one (name, type) question, as cached by the
+// CacheServer. Hits can hand the set out in a rotated order so clients
+// spread over the addresses of a name. Every rotation is an immutable view
+// made when the set is built, so picking one on a hit allocates nothing.
+// A set reached through aliases also keeps the CNAME records leading from
+// the question to its owner, in chain order, for responses that have to
+// show them (see DnsResponder).
+public final class RRset
+{
+    public enum Rotation
+    {
+	NONE,         // always in the order the records were found
+	ROUND_ROBIN,  // each hit starts one record further
+	SHUFFLE       // each hit starts at a random record
+    }
+
+    private final ResourceRecord[] records;
+    private final List<ResourceRecord> aliases;
+    private final List<ResourceRecord>[] rotations;  // rotations[i] starts at records[i]
+    private final int minimumTtl;
+
+    // Racy on purpose: two hits may see the same start, which only makes
+    // the round robin slightly less even, while a shared atomic counter
+    // would have every thread of a hot name contend on it
+    private int next;
+
+    public RRset(List<ResourceRecord> rrs)
+    {
+	this(rrs, List.of());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RRset(List<ResourceRecord> rrs, List<ResourceRecord> aliases)
+    {
+	if(rrs.isEmpty())
+	    throw new IllegalArgumentException("An RRset holds at least one record");
+
+	this.records   = rrs.toArray(new ResourceRecord[rrs.size()]);
+	this.aliases   = List.copyOf(aliases);
+	this.rotations = new List[records.length];
+	int ttl = Integer.MAX_VALUE;
+	for(int i = 0; i < records.length; i++)
+	{
+	    rotations[i] = new Rotated(records, i);
+	    ttl = Math.min(ttl, records[i].timeToLive);
+	}
+	this.minimumTtl = ttl;
+    }
+
+    public RRset(ResourceRecord rr)
+    {
+	this(List.of(rr));
+    }
+
+    public int size()
+    {
+	return records.length;
+    }
+
+    // Of the records only, not of the aliases
+    public int getMinimumTtl()
+    {
+	return minimumTtl;
+    }
+
+    // The CNAME chain from the question to the owner of the records, empty
+    // when the question is the owner
+    public List<ResourceRecord> getAliases()
+    {
+	return aliases;
+    }
+
+    // The whole set, starting where 'rotation' says
+    public List<ResourceRecord> rotate(Rotation rotation)
+    {
+	return rotations[start(rotation)];
+    }
+
+    // Only the record a rotated set would start with
+    public ResourceRecord first(Rotation rotation)
+    {
+	return records[start(rotation)];
+    }
+
+    private int start(Rotation rotation)
+    {
+	if(records.length == 1)
+	    return 0;
+	switch(rotation)
+	{
+	    case ROUND_ROBIN:
+	    {
+		int start = next;
+		next = (start + 1 == records.length) ? 0 : start + 1;
+		return start;
+	    }
+	    case SHUFFLE:
+		return ThreadLocalRandom.current().nextInt(records.length);
+	    default:
+		return 0;
+	}
+    }
+
+    private static final class Rotated extends AbstractList<ResourceRecord>
+	implements RandomAccess
+    {
+	private final ResourceRecord[] records;
+	private final int              offset;
+
+	Rotated(ResourceRecord[] records, int offset)
+	{
+	    this.records = records;
+	    this.offset  = offset;
+	}
+
+	@Override
+	public ResourceRecord get(int index)
+	{
+	    if(index < 0 || index >= records.length)
+		throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + records.length);
+	    int position = offset + index;
+	    return records[(position >= records.length) ? position - records.length : position];
+	}
+
+	@Override
+	public int size()
+	{
+	    return records.length;
+	}
+    }
+}
@@ -1,112 +1,127 @@
 package src;
 
-import java.io.PrintWriter;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.Closeable;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 
-public class Resolver
+public class Resolver implements Closeable
 {    
     private CacheServer server;
-    private ConcurrentHashMap<Integer, String> pendingRequests;
+    private HandleTable<CompletableFuture<String>> pendingRequests; // pending ask() handles
 
-    private static final String NotSet = "NotSet";
+    private ExecutionStrategy workers;
+    private boolean           ownsWorkers;  // made here, so close() shuts them down
 
-    private static int globalRequestCounter = 0;
-
-    private static final String LogDirectory = "log/resolver";
-    private static final String LogPrefix    = "resolve_";
+    private static final LogSink Log = new LogSink("log/resolver", "resolve_");
     
     public Resolver(CacheServer server)
     {
-	this.server = server;
-	this.pendingRequests = new ConcurrentHashMap<Integer, String>();
+	this(server, ExecutionStrategy.defaultStrategy());
+	this.ownsWorkers = true;
+    }
+
+    // Like CacheServer.close(): only workers made by the constructor stop
+    public void close()
+    {
+	if(ownsWorkers)
+	    workers.shutdown();
+    }
+
+    public Resolver(CacheServer server, ExecutionStrategy workers)
+    {
+	this.server  = server;
+	this.workers = workers;
+	this.pendingRequests = new HandleTable<CompletableFuture<String>>();
+    }
+
+    public int getQueueDepth()
+    {
+	return workers.getQueueDepth();
+    }
+
+    public int getActiveWorkers()
+    {
+	return workers.getActiveWorkers();
     }
 
     public int ask(String domainAddress, RequestType what)
+    {
+	return pendingRequests.register(askAsync(domainAddress, what));
+    }
+
+    public CompletableFuture<String> askAsync(String domainAddress, RequestType what)
     {
 	// Basically ping pong
 	// Search for A/AAAA until you get it
 	// When NS or CNAME are found handle them by asking the servers
-	int requestCode = globalRequestCounter++;
-	ConnectionHandler connection = new ConnectionHandler(requestCode, domainAddress, what);
-	connection.start();
+	CompletableFuture<String> response = new CompletableFuture<>();
+	ConnectionHandler connection = new ConnectionHandler(domainAddress, what, response);
+	workers.execute(connection);
 
-	return requestCode;
+	return response;
     }
     
     public String askAndWait(String domainAddress, RequestType what)
     {
-	int requestCode = ask(domainAddress, what);
-	
-	return getOrWait(requestCode);
+	return askAsync(domainAddress, what).join();
     }
 
+    // Blocking adapter over askAsync(): parks the caller instead of spinning
     public String getOrWait(int requestCode)
     {
-
-	if(!pendingRequests.containsKey(requestCode))
+	CompletableFuture<String> response = pendingRequests.remove(requestCode);
+	if(response == null)
 	    return null;
-	System.out.println("Waiting...");	
-	while(pendingRequests.get(requestCode).equals(NotSet));
-	
-	String response = pendingRequests.get(requestCode);
-	pendingRequests.remove(requestCode);
-
 
-	return response;
+	return response.join();
     }
 
-    private class ConnectionHandler extends Thread
+    private class ConnectionHandler implements Runnable
     {
-	private int         requestCode;
 	private String      domainAddress;
 	private RequestType what;
+	private CompletableFuture<String> answer;
+	private long        startTime;
 	
-	public ConnectionHandler(int requestCode, String domainAddress, RequestType what)
+	public ConnectionHandler(String domainAddress, RequestType what,
+				 CompletableFuture<String> answer)
 	{
 	    this.domainAddress = domainAddress;
 	    this.what          = what;
-	    this.requestCode   = requestCode;
-	    pendingRequests.put(requestCode, NotSet);
+	    this.answer        = answer;
 	}
 
 	public void run()
 	{
-	    long time = System.nanoTime();
-	    
-	    int responseCode        = server.query(domainAddress, what);
-	    ResourceRecord response = server.getOrWait(responseCode);
-	    pendingRequests.put(requestCode, response.rdata);
-	    
-	    time = System.nanoTime() - time;
-	    String filename = LogDirectory + "/" + LogPrefix + domainAddress.replaceAll("\\.", "") + ".txt";
-	    if(!writeLog(filename, response, time))
-		System.out.println("Printed correctly");
-       	}
+	    // Hand the continuation to the server instead of parking a worker
+	    // on it, so a slow lookup never pins one of our threads
+	    startTime = System.nanoTime();
+	    server.queryAsync(domainAddress, what).whenComplete(this::finish);
+	}
 
-	private boolean writeLog(String filename, ResourceRecord response, long nanoTime)
+	private void finish(ResourceRecord response, Throwable error)
 	{
-	    try
+	    if(error != null)
 	    {
-		PrintWriter out = new PrintWriter(new FileOutputStream(filename));
+		answer.completeExceptionally(error);
+		return;
+	    }
+	    answer.complete(response.rdata);
 
-		out.println("Starting exchange with the cache server");
-		out.println("-------------------------------------------------------");
-		out.println("Requested IP address of: " + domainAddress);
-		out.println("Cache server response: "   + response.rdata);
-		out.println("Time elapsed: " + (((double)nanoTime)/100000000));
+	    if(LogSink.isEnabled())
+		writeLog(response, System.nanoTime() - startTime);
+       	}
 
-		out.close();
-		
-		return true;
-	    }
-	    catch(IOException ie)
-	    {
-		ie.printStackTrace();
-		return false;
-	    }
+	private void writeLog(ResourceRecord response, long nanoTime)
+	{
+	    StringBuilder entry = new StringBuilder(192);
+	    entry.append("Starting exchange with the cache server\n");
+	    entry.append("-------------------------------------------------------\n");
+	    entry.append("Requested IP address of: ").append(domainAddress).append('\n');
+	    entry.append("Cache server response: ").append(response.rdata).append('\n');
+	    entry.append("Time elapsed: ").append(((double)nanoTime)/1000000000).append('\n');
+
+	    Log.append(entry.toString());
 	}
     }
 }
@@ -37,6 +37,8 @@ public class ResourceRecord
     public int    timeToLive;
     public String rdata;
 
+    private int ownerId = -1;   // SymbolTable.Shared id once the record is in a tree
+
     public static ResourceRecord INVALID = new ResourceRecord();
 
     public ResourceRecord()
@@ -56,6 +58,24 @@ public class ResourceRecord
 	this.rdata      = rdata;
     }
 
+    // Puts the owner (and the target name of NS and CNAME records) in
+    // canonical form, shares it with every other record naming it, and
+    // remembers the owner's symbol id
+    void intern()
+    {
+	if(ownerId >= 0)
+	    return;
+	ownerId = SymbolTable.Shared.intern(DomainName.canonical(owner));
+	owner   = SymbolTable.Shared.symbol(ownerId);
+	if(type == Type.NS || type == Type.CNAME)
+	    rdata = SymbolTable.Shared.symbol(SymbolTable.Shared.intern(DomainName.canonical(rdata)));
+    }
+
+    public int getOwnerId()
+    {
+	return ownerId;
+    }
+
     @Override
     public String toString()
     {
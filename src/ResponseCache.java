@@ -0,0 +1,107 @@
+package src;
+
+import java.nio.ByteBuffer;
+
+// Responses as they went out on the wire, by question. A hit is copied
+// into the send buffer as is; only the transaction id, the RD flag and the
+// TTLs (counted down to what the cached answer has left) are patched, so
+// neither the Message nor the codec is touched.
+// Each entry carries the version of the tree it was answered from (see
+// DomainTree.getVersion) and is not served once the tree has changed; it
+// expires with the cached records it was encoded from.
+// Only responses to questions spelled in canonical form are kept, so the
+// question in the bytes is the one asked.
+final class ResponseCache
+{
+    private TtlCache<QuestionKey, Entry> entries;
+
+    private static final long NanosPerSecond = 1000000000L;
+
+    private static final class Entry
+    {
+	final byte[] bytes;
+	final int[]  ttlOffsets;
+	final int[]  ttls;        // as encoded
+	final long   version;
+	final long   expiresAt;   // System.nanoTime()
+
+	Entry(byte[] bytes, int[] ttlOffsets, int[] ttls, long version, long expiresAt)
+	{
+	    this.bytes      = bytes;
+	    this.ttlOffsets = ttlOffsets;
+	    this.ttls       = ttls;
+	    this.version    = version;
+	    this.expiresAt  = expiresAt;
+	}
+    }
+
+    ResponseCache(int capacity, TtlCache.Policy policy)
+    {
+	this.entries = new TtlCache<QuestionKey, Entry>(capacity, policy);
+    }
+
+    // Writes the response to 'query' into 'out' from its position when one
+    // answered from tree 'version' is at hand and fits in 'limit' bytes
+    boolean answer(QuestionKey key, Message query, long version, ByteBuffer out, int limit)
+    {
+	if(query.question.name != key.name)
+	    return false;  // not in canonical form, or not interned
+	Entry entry = entries.get(key);
+	if(entry == null || entry.version != version ||
+	   entry.bytes.length > Math.min(limit, out.remaining()))
+	    return false;
+	long left = (entry.expiresAt - System.nanoTime()) / NanosPerSecond;
+	if(left <= 0)
+	    return false;
+
+	int base = out.position();
+	out.put(entry.bytes);
+	int flags = out.getShort(base + 2) & ~MessageCodec.FlagRecursionDesired;
+	if(query.header.method == Message.QueryMethod.RECURSIVE)
+	    flags |= MessageCodec.FlagRecursionDesired;
+	out.putShort(base,     (short) query.header.id);
+	out.putShort(base + 2, (short) flags);
+	for(int i = 0; i < entry.ttlOffsets.length; i++)
+	    out.putInt(base + entry.ttlOffsets[i], (int) Math.min(entry.ttls[i], left));
+	return true;
+    }
+
+    // Keeps the response 'codec' just encoded between 'start' and the
+    // position of 'out', for 'timeToLive' more nanoseconds
+    void put(QuestionKey key, Message response, long version, MessageCodec codec,
+	     ByteBuffer out, int start, long timeToLive)
+    {
+	int ttlSeconds = (int) Math.min(Integer.MAX_VALUE, timeToLive / NanosPerSecond);
+	if(response.question.name != key.name || response.header.truncated || ttlSeconds <= 0)
+	    return;
+
+	byte[] bytes = new byte[out.position() - start];
+	ByteBuffer encoded = out.duplicate();
+	encoded.position(start);
+	encoded.get(bytes);
+	int[] ttlOffsets = new int[codec.getTtlCount()];
+	int[] ttls       = new int[ttlOffsets.length];
+	for(int i = 0; i < ttlOffsets.length; i++)
+	{
+	    ttlOffsets[i] = codec.getTtlOffset(i);
+	    ttls[i]       = out.getInt(start + ttlOffsets[i]);
+	}
+	entries.put(key, new Entry(bytes, ttlOffsets, ttls, version,
+				   System.nanoTime() + timeToLive), ttlSeconds);
+    }
+
+    void clear()
+    {
+	entries.clear();
+    }
+
+    int size()
+    {
+	return entries.size();
+    }
+
+    long getHits()
+    {
+	return entries.getHits();
+    }
+}
@@ -0,0 +1,159 @@
+package src;
+
+// Interns strings into dense int ids (0, 1, 2, ...).
+// Lookups never allocate: find() hashes and compares a region of any
+// CharSequence in place, so a label can be resolved straight out of a
+// longer domain address. Reads are lock-free; intern() takes a lock only
+// when the string is new.
+// A case-folding table stores every symbol in lower case and ignores ASCII
+// case when looking up, the way domain names compare.
+public final class SymbolTable
+{
+    // Labels and owner names of every loaded zone. Only strings that enter
+    // a tree are interned here; lookups use find() so arbitrary queried
+    // names never grow the table.
+    public static final SymbolTable Shared = new SymbolTable(true);
+
+    private final boolean foldCase;
+
+    private volatile Table table = new Table(64, 32);
+
+    public SymbolTable()
+    {
+	this(false);
+    }
+
+    public SymbolTable(boolean foldCase)
+    {
+	this.foldCase = foldCase;
+    }
+
+    public int intern(String symbol)
+    {
+	if(foldCase)
+	    symbol = DomainName.toLowerCase(symbol);
+	int id = find(symbol, 0, symbol.length());
+	if(id >= 0)
+	    return id;
+	synchronized(this)
+	{
+	    id = find(symbol, 0, symbol.length());
+	    if(id >= 0)
+		return id;
+
+	    Table current = table;
+	    if(current.count == current.symbols.length ||
+	       2 * (current.count + 1) > current.slots.length)
+	    {
+		current = current.grow();
+		table   = current;
+	    }
+	    return current.add(symbol, hash(symbol, 0, symbol.length(), foldCase));
+	}
+    }
+
+    public int find(CharSequence symbol)
+    {
+	return find(symbol, 0, symbol.length());
+    }
+
+    // Id of the characters [start, end) of text, or -1 if never interned
+    public int find(CharSequence text, int start, int end)
+    {
+	Table current = table;
+	int   count   = current.count;  // volatile read, publishes the entries below it
+	int   hash    = hash(text, start, end, foldCase);
+	int   mask    = current.slots.length - 1;
+	for(int slot = hash & mask; ; slot = (slot + 1) & mask)
+	{
+	    int id = current.slots[slot] - 1;
+	    if(id < 0 || id >= count)
+		return -1;
+	    if(current.hashes[id] == hash &&
+	       matches(current.symbols[id], text, start, end, foldCase))
+		return id;
+	}
+    }
+
+    public String symbol(int id)
+    {
+	return table.symbols[id];
+    }
+
+    public int size()
+    {
+	return table.count;
+    }
+
+    // String.hashCode() of the region (of its lower case form when folding)
+    static int hash(CharSequence text, int start, int end, boolean foldCase)
+    {
+	int hash = 0;
+	for(int i = start; i < end; i++)
+	{
+	    char c = text.charAt(i);
+	    hash = 31 * hash + (foldCase ? DomainName.lower(c) : c);
+	}
+	return spread(hash);
+    }
+
+    private static int spread(int hash)
+    {
+	return hash ^ (hash >>> 16);
+    }
+
+    // Symbols of a folding table are already lower case
+    private static boolean matches(String symbol, CharSequence text, int start, int end,
+				   boolean foldCase)
+    {
+	int length = end - start;
+	if(symbol.length() != length)
+	    return false;
+	for(int i = 0; i < length; i++)
+	{
+	    char c = text.charAt(start + i);
+	    if(symbol.charAt(i) != (foldCase ? DomainName.lower(c) : c))
+		return false;
+	}
+	return true;
+    }
+
+    private static final class Table
+    {
+	final int[]    slots;   // id + 1, 0 when free
+	final String[] symbols;
+	final int[]    hashes;
+	volatile int   count;
+
+	Table(int slotCount, int capacity)
+	{
+	    this.slots   = new int[slotCount];
+	    this.symbols = new String[capacity];
+	    this.hashes  = new int[capacity];
+	}
+
+	int add(String symbol, int hash)
+	{
+	    int id = count;
+	    symbols[id] = symbol;
+	    hashes[id]  = hash;
+
+	    int mask = slots.length - 1;
+	    int slot = hash & mask;
+	    while(slots[slot] != 0)
+		slot = (slot + 1) & mask;
+	    slots[slot] = id + 1;
+
+	    count = id + 1;
+	    return id;
+	}
+
+	Table grow()
+	{
+	    Table bigger = new Table(slots.length * 2, symbols.length * 2);
+	    for(int id = 0; id < count; id++)
+		bigger.add(symbols[id], hashes[id]);
+	    return bigger;
+	}
+    }
+}
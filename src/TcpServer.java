@@ -0,0 +1,535 @@
+package src;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// DNS over TCP in front of a CacheServer: every message travels behind its
+// length in two bytes (RFC 1035 4.2.2). A client may pipeline any number of
+// queries on one connection and the responses go out in the order their
+// answers are ready, so a slow miss does not hold back the hits queued
+// behind it; clients match them by id (RFC 7766). One selector thread
+// serves every connection, encoding hits itself as UdpServer does; the
+// worker completing a miss queues the framed response for that thread to
+// write. A connection has at most maxOutstanding queries read and not yet
+// answered, past that it is not read from until some answers are written.
+// Connections with no traffic for the idle timeout are closed.
+public class TcpServer implements Runnable, Closeable
+{
+    private ServerSocketChannel listener;
+    private Selector            selector;
+    private BufferPool          buffers;  // framed responses waiting to be written
+
+    private volatile boolean running = true;
+
+    private int  maxOutstanding = DefaultMaxOutstanding;
+    private long idleTimeout    = DefaultIdleTimeout * 1000000000L;  // nanoseconds
+
+    // Owned by the selector thread
+    private DnsResponder responder;
+    private ByteBuffer   in  = ByteBuffer.allocateDirect(2 + MaxMessageLength);
+    private ByteBuffer   out = ByteBuffer.allocateDirect(2 + MaxMessageLength);
+    private long         now;
+    private long         lastReap;
+    private Consumer<SelectionKey> onReady = this::handle;
+
+    // Connections the workers queued responses for
+    private ConcurrentLinkedQueue<Connection> ready = new ConcurrentLinkedQueue<>();
+
+    private LongAdder     received = new LongAdder();
+    private LongAdder     dropped  = new LongAdder();  // not queries
+    private LongAdder     accepted = new LongAdder();
+    private volatile int  open;
+
+    public static final int DefaultMaxOutstanding = 64;
+    public static final int DefaultIdleTimeout    = 30;  // seconds
+
+    static final int MaxMessageLength = MessageCodec.MaxMessageLength;
+
+    private static final int  BufferSize   = 4096;
+    private static final long ReapInterval = 1000;  // milliseconds
+
+    public TcpServer(CacheServer server, int port) throws IOException
+    {
+	this(server, new InetSocketAddress(port));
+    }
+
+    public TcpServer(CacheServer server, InetSocketAddress address) throws IOException
+    {
+	this.responder = new DnsResponder(server);
+	this.buffers   = new BufferPool(BufferSize, 1024);
+	this.selector  = Selector.open();
+	this.listener  = ServerSocketChannel.open();
+	try
+	{
+	    listener.bind(address, 1024);
+	    listener.configureBlocking(false);
+	    listener.register(selector, SelectionKey.OP_ACCEPT);
+	}
+	catch(IOException ioe)
+	{
+	    listener.close();
+	    selector.close();
+	    throw ioe;
+	}
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException
+    {
+	return (InetSocketAddress) listener.getLocalAddress();
+    }
+
+    // Queries one connection may have in progress before it is paused
+    public void setMaxOutstanding(int maxOutstanding)
+    {
+	this.maxOutstanding = Math.max(1, maxOutstanding);
+    }
+
+    public void setIdleTimeout(int seconds)
+    {
+	this.idleTimeout = seconds * 1000000000L;
+    }
+
+    public long getReceived()
+    {
+	return received.sum();
+    }
+
+    public long getDropped()
+    {
+	return dropped.sum();
+    }
+
+    public long getAccepted()
+    {
+	return accepted.sum();
+    }
+
+    public int getOpenConnections()
+    {
+	return open;
+    }
+
+    // Runs the server on its own daemon thread
+    public Thread start()
+    {
+	Thread thread = new Thread(this, "dotoip-tcp");
+	thread.setDaemon(true);
+	thread.start();
+	return thread;
+    }
+
+    public void run()
+    {
+	lastReap = System.nanoTime();
+	try
+	{
+	    while(running)
+	    {
+		selector.select(onReady, ReapInterval);
+		now = System.nanoTime();
+
+		Connection connection;
+		while((connection = ready.poll()) != null)
+		{
+		    connection.queued.set(false);
+		    if(!connection.closed)
+			flush(connection);
+		}
+
+		if(now - lastReap >= ReapInterval * 1000000L)
+		{
+		    reapIdle();
+		    lastReap = now;
+		}
+	    }
+	}
+	catch(ClosedSelectorException closed)
+	{
+	    // close() was called
+	}
+	catch(IOException ioe)
+	{
+	    if(running)
+		throw new UncheckedIOException(ioe);
+	}
+	finally
+	{
+	    closeAll();
+	}
+    }
+
+    public void close()
+    {
+	running = false;
+	selector.wakeup();
+    }
+
+    private void handle(SelectionKey key)
+    {
+	now = System.nanoTime();
+	if(!key.isValid())
+	    return;
+	if(key.isAcceptable())
+	{
+	    accept();
+	    return;
+	}
+
+	Connection connection = (Connection) key.attachment();
+	if(key.isWritable())
+	    flush(connection);
+	if(!connection.closed && key.isReadable())
+	    read(connection);
+    }
+
+    private void accept()
+    {
+	try
+	{
+	    SocketChannel channel;
+	    while((channel = listener.accept()) != null)
+	    {
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		accepted.increment();
+		open++;
+	    }
+	}
+	catch(IOException ioe)
+	{
+	    // Out of descriptors or the client is gone already; the next
+	    // readiness event retries
+	}
+    }
+
+    private void read(Connection connection)
+    {
+	in.clear();
+	if(connection.partial != null)
+	{
+	    in.put(connection.partial);
+	    connection.partial = null;
+	}
+	try
+	{
+	    if(connection.channel.read(in) < 0)
+	    {
+		// The client is done sending; answer what it asked, then close
+		connection.inputClosed = true;
+		connection.reading     = false;
+	    }
+	}
+	catch(IOException ioe)
+	{
+	    close(connection);
+	    return;
+	}
+	connection.lastActive = now;
+	in.flip();
+	readFrames(connection);
+	updateInterest(connection);
+    }
+
+    // Answers every complete query in 'in' and keeps the rest for later
+    private void readFrames(Connection connection)
+    {
+	while(in.remaining() >= 2 && !connection.closed)
+	{
+	    if(connection.outstanding.get() >= maxOutstanding)
+	    {
+		connection.reading = false;
+		break;
+	    }
+	    int start  = in.position();
+	    int length = in.getShort(start) & 0xffff;
+	    if(in.remaining() < 2 + length)
+		break;
+
+	    int limit = in.limit();
+	    in.position(start + 2).limit(start + 2 + length);
+	    query(connection);
+	    in.limit(limit).position(start + 2 + length);
+	}
+	if(in.hasRemaining() && !connection.closed)
+	{
+	    ByteBuffer partial = ByteBuffer.allocate(in.remaining());
+	    partial.put(in).flip();
+	    connection.partial = partial;
+	}
+    }
+
+    private void query(Connection connection)
+    {
+	received.increment();
+	out.clear();
+	out.position(2);
+	int outcome = responder.answer(in, out, MaxMessageLength);
+	if(outcome == DnsResponder.Ignored)
+	{
+	    dropped.increment();
+	    return;
+	}
+	connection.outstanding.incrementAndGet();
+	if(outcome == DnsResponder.Pending)
+	{
+	    responder.completeLater(connection);
+	    return;
+	}
+
+	out.putShort(0, (short) (out.position() - 2));
+	out.flip();
+	send(connection, out);
+    }
+
+    // Writes a framed response made by this thread, straight away when
+    // nothing is queued before it
+    private void send(Connection connection, ByteBuffer frame)
+    {
+	if(connection.writing == null && connection.outbox.isEmpty())
+	{
+	    try
+	    {
+		connection.channel.write(frame);
+	    }
+	    catch(IOException ioe)
+	    {
+		close(connection);
+		return;
+	    }
+	    if(!frame.hasRemaining())
+	    {
+		connection.outstanding.decrementAndGet();
+		return;
+	    }
+	    // The rest of this frame has to go out before anything else
+	    connection.writing = copy(frame);
+	    return;
+	}
+	connection.outbox.add(copy(frame));
+    }
+
+    private ByteBuffer copy(ByteBuffer frame)
+    {
+	ByteBuffer copy = (frame.remaining() <= BufferSize)
+	    ? buffers.acquire() : ByteBuffer.allocate(frame.remaining());
+	copy.put(frame).flip();
+	return copy;
+    }
+
+    private void flush(Connection connection)
+    {
+	try
+	{
+	    while(true)
+	    {
+		ByteBuffer frame = connection.writing;
+		if(frame == null)
+		{
+		    frame = connection.outbox.poll();
+		    if(frame == null)
+			break;
+		    connection.writing = frame;
+		}
+		connection.channel.write(frame);
+		if(frame.hasRemaining())
+		    break;  // socket buffer full, wait until writable
+
+		connection.writing = null;
+		buffers.release(frame);
+		connection.outstanding.decrementAndGet();
+		connection.lastActive = now;
+	    }
+	}
+	catch(IOException ioe)
+	{
+	    close(connection);
+	    return;
+	}
+
+	if(!connection.reading && connection.outstanding.get() < maxOutstanding)
+	{
+	    // Below the bound again: answer what was held back, then read on
+	    connection.reading = !connection.inputClosed;
+	    if(connection.partial != null)
+	    {
+		in.clear();
+		in.put(connection.partial).flip();
+		connection.partial = null;
+		readFrames(connection);
+	    }
+	}
+	updateInterest(connection);
+    }
+
+    private void updateInterest(Connection connection)
+    {
+	if(connection.closed)
+	    return;
+	if(connection.inputClosed && connection.outstanding.get() == 0)
+	{
+	    close(connection);
+	    return;
+	}
+	int interest = (connection.reading ? SelectionKey.OP_READ : 0)
+	    | ((connection.writing != null) ? SelectionKey.OP_WRITE : 0);
+	if(interest != connection.interest)
+	{
+	    connection.key.interestOps(interest);
+	    connection.interest = interest;
+	}
+    }
+
+    private void reapIdle()
+    {
+	for(SelectionKey key : selector.keys())
+	{
+	    Object attachment = key.attachment();
+	    if(attachment instanceof Connection)
+	    {
+		Connection connection = (Connection) attachment;
+		if(now - connection.lastActive > idleTimeout)
+		    close(connection);
+	    }
+	}
+    }
+
+    private void close(Connection connection)
+    {
+	if(connection.closed)
+	    return;
+	// Under the outbox lock, so no worker queues a frame after the drain
+	synchronized(connection.outbox)
+	{
+	    connection.closed = true;
+	}
+	connection.key.cancel();
+	try
+	{
+	    connection.channel.close();
+	}
+	catch(IOException ioe)
+	{
+	    // Closed either way
+	}
+	if(connection.writing != null)
+	    buffers.release(connection.writing);
+	ByteBuffer frame;
+	while((frame = connection.outbox.poll()) != null)
+	    buffers.release(frame);
+	open--;
+    }
+
+    private void closeAll()
+    {
+	try
+	{
+	    for(SelectionKey key : selector.keys())
+	    {
+		if(key.attachment() instanceof Connection)
+		    close((Connection) key.attachment());
+	    }
+	}
+	catch(ClosedSelectorException closed)
+	{
+	    // Nothing registered any more
+	}
+	try
+	{
+	    listener.close();
+	    selector.close();
+	}
+	catch(IOException ioe)
+	{
+	    // Nothing left to do with them
+	}
+    }
+
+    private final class Connection implements DnsResponder.Completion
+    {
+	final SocketChannel channel;
+	SelectionKey        key;
+	int                 interest = SelectionKey.OP_READ;
+	long                lastActive;
+
+	boolean    reading = true;  // false while over the outstanding bound
+	boolean    inputClosed;
+	ByteBuffer partial;         // start of a query still arriving, or held back
+	ByteBuffer writing;         // frame partly written, goes before the outbox
+
+	// Framed responses of misses, filled by the workers; they add to it
+	// holding its lock, and never once 'closed' is set
+	final ConcurrentLinkedQueue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+	// Queries read and not yet completely written back
+	final AtomicInteger outstanding = new AtomicInteger();
+	// On the server's ready queue
+	final AtomicBoolean queued = new AtomicBoolean();
+
+	volatile boolean closed;
+
+	Connection(SocketChannel channel)
+	{
+	    this.channel    = channel;
+	    this.lastActive = now;
+	}
+
+	// From the worker that completed a lookup
+	public void complete(Message response)
+	{
+	    if(closed)
+		return;
+	    ByteBuffer frame = buffers.acquire();
+	    frame.position(2);
+	    DnsResponder.encode(response, frame, MaxMessageLength);
+	    if(response.header.truncated)
+	    {
+		// Only when the pooled buffer is too small; TCP never truncates
+		response.header.truncated = false;
+		buffers.release(frame);
+		frame = ByteBuffer.allocate(2 + MaxMessageLength);
+		frame.position(2);
+		DnsResponder.encode(response, frame, MaxMessageLength);
+	    }
+	    frame.putShort(0, (short) (frame.position() - 2));
+	    frame.flip();
+
+	    synchronized(outbox)
+	    {
+		if(!closed)
+		{
+		    outbox.add(frame);
+		    frame = null;
+		}
+	    }
+	    if(frame != null)
+	    {
+		// Closed while we encoded, nobody will drain it
+		buffers.release(frame);
+		return;
+	    }
+	    if(queued.compareAndSet(false, true))
+	    {
+		ready.add(this);
+		selector.wakeup();
+	    }
+	}
+    }
+}
@@ -0,0 +1,328 @@
+package src;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded cache whose entries expire after their own time-to-live.
+// The key space is split over independently locked segments, each holding
+// at most capacity/segments entries. Once a segment is full the eviction
+// policy decides who leaves:
+//  - LRU:      the least recently used entry is dropped.
+//  - TINY_LFU: new entries land in a small LRU window; an entry pushed out
+//              of the window only replaces the main area's LRU victim if it
+//              has been asked for more often (W-TinyLFU style admission).
+//              This keeps one-hit wonders from flushing popular names.
+public class TtlCache<K, V>
+{
+    public enum Policy
+    {
+	LRU, TINY_LFU
+    }
+
+    private Segment[] segments;
+
+    private LongAdder hits      = new LongAdder();
+    private LongAdder misses    = new LongAdder();
+    private LongAdder evictions = new LongAdder();
+
+    private static final int SegmentCount = 16;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TtlCache(int capacity, Policy policy)
+    {
+	int segmentCount = Math.max(1, Math.min(SegmentCount, capacity));
+	int perSegment   = Math.max(1, capacity / segmentCount);
+
+	this.segments = (Segment[]) new TtlCache.Segment[segmentCount];
+	for(int i = 0; i < segmentCount; i++)
+	    segments[i] = new Segment(perSegment, policy);
+    }
+
+    public V get(K key)
+    {
+	V value = segmentFor(key).get(key, System.nanoTime(), true);
+	if(value == null)
+	    misses.increment();
+	else
+	    hits.increment();
+	return value;
+    }
+
+    // Like get(), but leaves counters and access frequencies untouched
+    public V peek(K key)
+    {
+	return segmentFor(key).get(key, System.nanoTime(), false);
+    }
+
+    // Nanoseconds the entry for key has left to live, 0 when there is none.
+    // Leaves counters and access frequencies untouched, like peek().
+    public long timeToLive(K key)
+    {
+	long now = System.nanoTime();
+	return Math.max(0, segmentFor(key).expiresAt(key, now) - now);
+    }
+
+    // An entry with a TTL of zero or less is not stored at all
+    public void put(K key, V value, int ttlSeconds)
+    {
+	if(ttlSeconds <= 0)
+	    return;
+	long expiresAt = System.nanoTime() + ttlSeconds * 1000000000L;
+	segmentFor(key).put(key, value, expiresAt);
+    }
+
+    public void invalidate(K key)
+    {
+	segmentFor(key).remove(key);
+    }
+
+    public void clear()
+    {
+	for(Segment segment : segments)
+	    segment.clear();
+    }
+
+    public int size()
+    {
+	int size = 0;
+	for(Segment segment : segments)
+	    size += segment.size();
+	return size;
+    }
+
+    public long getHits()
+    {
+	return hits.sum();
+    }
+
+    public long getMisses()
+    {
+	return misses.sum();
+    }
+
+    public long getEvictions()
+    {
+	return evictions.sum();
+    }
+
+    private Segment segmentFor(K key)
+    {
+	int hash = key.hashCode();
+	hash ^= (hash >>> 16);
+	return segments[(hash & 0x7fffffff) % segments.length];
+    }
+
+    private static class Entry<V>
+    {
+	V    value;
+	long expiresAt;
+
+	Entry(V value, long expiresAt)
+	{
+	    this.value     = value;
+	    this.expiresAt = expiresAt;
+	}
+    }
+
+    private class Segment
+    {
+	private LinkedHashMap<K, Entry<V>> window; // admission window, empty under LRU
+	private LinkedHashMap<K, Entry<V>> main;
+
+	private int windowCapacity;
+	private int mainCapacity;
+
+	private FrequencySketch sketch;            // only used by TINY_LFU
+
+	Segment(int capacity, Policy policy)
+	{
+	    if(policy == Policy.TINY_LFU && capacity > 1)
+	    {
+		this.windowCapacity = Math.max(1, capacity / 100);
+		this.sketch         = new FrequencySketch(capacity);
+	    }
+	    this.mainCapacity = capacity - windowCapacity;
+
+	    this.window = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+	    this.main   = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+	}
+
+	synchronized V get(K key, long now, boolean record)
+	{
+	    if(sketch != null && record)
+		sketch.increment(key);
+
+	    LinkedHashMap<K, Entry<V>> area = window;
+	    Entry<V> entry = window.get(key);
+	    if(entry == null)
+	    {
+		area  = main;
+		entry = main.get(key);
+	    }
+	    if(entry == null)
+		return null;
+
+	    if(entry.expiresAt - now <= 0)
+	    {
+		area.remove(key);
+		return null;
+	    }
+	    return entry.value;
+	}
+
+	synchronized long expiresAt(K key, long now)
+	{
+	    Entry<V> entry = window.get(key);
+	    if(entry == null)
+		entry = main.get(key);
+	    return (entry == null) ? now : entry.expiresAt;
+	}
+
+	synchronized void put(K key, V value, long expiresAt)
+	{
+	    Entry<V> entry = window.get(key);
+	    if(entry == null)
+		entry = main.get(key);
+	    if(entry != null) // refresh in place
+	    {
+		entry.value     = value;
+		entry.expiresAt = expiresAt;
+		return;
+	    }
+
+	    if(sketch != null)
+		sketch.increment(key);
+
+	    entry = new Entry<V>(value, expiresAt);
+	    if(windowCapacity == 0)
+	    {
+		admit(key, entry);
+		return;
+	    }
+
+	    window.put(key, entry);
+	    if(window.size() > windowCapacity)
+	    {
+		Iterator<Map.Entry<K, Entry<V>>> eldest = window.entrySet().iterator();
+		Map.Entry<K, Entry<V>> candidate = eldest.next();
+		eldest.remove();
+		admit(candidate.getKey(), candidate.getValue());
+	    }
+	}
+
+	private void admit(K key, Entry<V> entry)
+	{
+	    if(main.size() >= mainCapacity)
+	    {
+		Iterator<Map.Entry<K, Entry<V>>> eldest = main.entrySet().iterator();
+		Map.Entry<K, Entry<V>> victim = eldest.next();
+		// An expired victim leaves for free, only live ones count as evicted
+		if(victim.getValue().expiresAt - System.nanoTime() > 0)
+		{
+		    evictions.increment();
+		    if(sketch != null &&
+		       sketch.frequency(key) <= sketch.frequency(victim.getKey()))
+			return;  // the candidate loses and is dropped instead
+		}
+		eldest.remove();
+	    }
+	    main.put(key, entry);
+	}
+
+	synchronized void remove(K key)
+	{
+	    if(window.remove(key) == null)
+		main.remove(key);
+	}
+
+	synchronized void clear()
+	{
+	    window.clear();
+	    main.clear();
+	}
+
+	synchronized int size()
+	{
+	    return window.size() + main.size();
+	}
+    }
+
+    // Count-min sketch of 4-bit counters estimating how often a key was seen.
+    // Counters are halved once enough samples went by, so the estimate
+    // follows the recent popularity of a name rather than its whole history.
+    private static class FrequencySketch
+    {
+	private long[] table;       // 16 counters of 4 bits per slot
+	private int    mask;
+	private int    samples;
+	private int    resetAfter;
+
+	private static final long[] Seeds = {
+	    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+	    0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+
+	FrequencySketch(int capacity)
+	{
+	    int slots = Integer.highestOneBit(Math.max(4, capacity - 1)) << 1;
+	    this.table      = new long[slots];
+	    this.mask       = slots - 1;
+	    this.resetAfter = 10 * Math.max(capacity, 16);
+	}
+
+	void increment(Object key)
+	{
+	    int hash = spread(key.hashCode());
+	    for(int i = 0; i < 4; i++)
+	    {
+		int  index  = indexOf(hash, i);
+		int  offset = counterOffset(hash, i);
+		long mask   = 0xfL << offset;
+		if((table[index] & mask) != mask)
+		    table[index] += 1L << offset;
+	    }
+	    if(++samples >= resetAfter)
+		halve();
+	}
+
+	int frequency(Object key)
+	{
+	    int hash = spread(key.hashCode());
+	    int min  = 15;
+	    for(int i = 0; i < 4; i++)
+	    {
+		int count = (int) ((table[indexOf(hash, i)] >>> counterOffset(hash, i)) & 0xfL);
+		min = Math.min(min, count);
+	    }
+	    return min;
+	}
+
+	private void halve()
+	{
+	    samples /= 2;
+	    for(int i = 0; i < table.length; i++)
+		table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+	}
+
+	private int indexOf(int hash, int row)
+	{
+	    long h = (hash + Seeds[row]) * Seeds[row];
+	    h += h >>> 32;
+	    return ((int) h) & mask;
+	}
+
+	private static int counterOffset(int hash, int row)
+	{
+	    return (((hash >>> (row << 3)) & 3) << 2) + (row << 4);
+	}
+
+	private static int spread(int x)
+	{
+	    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+	    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+	    return (x >>> 16) ^ x;
+	}
+    }
+}
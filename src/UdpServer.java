@@ -0,0 +1,199 @@
+package src;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// DNS over UDP (RFC 1035) in front of a CacheServer. One thread runs the
+// selector: on a cache hit it encodes the answer into a pooled direct
+// buffer and sends it at once, without allocating anything itself (the JDK
+// still makes the sender's address). A miss is answered by the worker
+// completing its lookup, through a Reply made for that miss only. See DnsResponder for what is answered and how.
+// Answers that do not fit in 512 bytes go out empty with TC set, so the
+// client retries over TCP (see TcpServer).
+public class UdpServer implements Runnable, Closeable
+{
+    private DatagramChannel channel;
+    private Selector        selector;
+    private BufferPool      buffers;
+
+    private volatile boolean running = true;
+
+    private DnsResponder responder;  // owned by the selector thread
+
+    private LongAdder received = new LongAdder();
+    private LongAdder dropped  = new LongAdder();  // not a query, or no room to send the answer
+
+    public static final int MaxUdpPayload = 512;
+
+    private static final int BufferSize = 4096;
+
+    public UdpServer(CacheServer server, int port) throws IOException
+    {
+	this(server, new InetSocketAddress(port));
+    }
+
+    public UdpServer(CacheServer server, InetSocketAddress address) throws IOException
+    {
+	this.responder = new DnsResponder(server);
+	this.buffers   = new BufferPool(BufferSize, 256);
+	this.selector  = Selector.open();
+	this.channel   = DatagramChannel.open();
+	try
+	{
+	    channel.bind(address);
+	    channel.configureBlocking(false);
+	    channel.register(selector, SelectionKey.OP_READ);
+	}
+	catch(IOException ioe)
+	{
+	    channel.close();
+	    selector.close();
+	    throw ioe;
+	}
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException
+    {
+	return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    public long getReceived()
+    {
+	return received.sum();
+    }
+
+    public long getDropped()
+    {
+	return dropped.sum();
+    }
+
+    // Runs the server on its own daemon thread
+    public Thread start()
+    {
+	Thread thread = new Thread(this, "dotoip-udp");
+	thread.setDaemon(true);
+	thread.start();
+	return thread;
+    }
+
+    public void run()
+    {
+	ByteBuffer in  = buffers.acquire();
+	ByteBuffer out = buffers.acquire();
+	try
+	{
+	    while(running)
+	    {
+		selector.select((key) -> {});
+		SocketAddress client;
+		while((client = channel.receive(in)) != null)
+		{
+		    in.flip();
+		    received.increment();
+		    serve(in, out, client);
+		    in.clear();
+		}
+	    }
+	}
+	catch(ClosedChannelException | ClosedSelectorException closed)
+	{
+	    // close() was called
+	}
+	catch(IOException ioe)
+	{
+	    if(running)
+		throw new UncheckedIOException(ioe);
+	}
+	finally
+	{
+	    buffers.release(in);
+	    buffers.release(out);
+	    closeQuietly();
+	}
+    }
+
+    public void close()
+    {
+	running = false;
+	selector.wakeup();
+	closeQuietly();
+    }
+
+    private void closeQuietly()
+    {
+	try
+	{
+	    channel.close();
+	    selector.close();
+	}
+	catch(IOException ioe)
+	{
+	    // Nothing left to do with them
+	}
+    }
+
+    private void serve(ByteBuffer in, ByteBuffer out, SocketAddress client) throws IOException
+    {
+	out.clear();
+	int outcome = responder.answer(in, out, MaxUdpPayload);
+	if(outcome == DnsResponder.Ignored)
+	    dropped.increment();
+	else if(outcome == DnsResponder.Pending)
+	    responder.completeLater(new Reply(client));
+	else
+	{
+	    out.flip();
+	    send(out, client);
+	}
+    }
+
+    private void send(ByteBuffer out, SocketAddress client) throws IOException
+    {
+	if(channel.send(out, client) == 0)
+	    dropped.increment();  // socket buffer full, the client will retry
+    }
+
+    // Where the response to one miss goes, sent by the worker that
+    // completed its lookup
+    private final class Reply implements DnsResponder.Completion
+    {
+	private final SocketAddress client;
+
+	Reply(SocketAddress client)
+	{
+	    this.client = client;
+	}
+
+	public void complete(Message response)
+	{
+	    ByteBuffer buffer = buffers.acquire();
+	    try
+	    {
+		DnsResponder.encode(response, buffer, MaxUdpPayload);
+		buffer.flip();
+		send(buffer, client);
+	    }
+	    catch(IOException ioe)
+	    {
+		dropped.increment();
+	    }
+	    finally
+	    {
+		buffers.release(buffer);
+	    }
+	}
+    }
+}
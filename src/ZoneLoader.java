@@ -0,0 +1,365 @@
+package src;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Streaming loader for the domain-db and rr-db text files.
+// The file is cut into newline-aligned chunks which are read with positional
+// NIO reads and tokenized by hand (no regex, no split) on a pool of parser
+// threads. Parsed chunks are merged into the tree in file order on the
+// calling thread, with only a few chunks alive at any time, so memory stays
+// bounded by the chunk size rather than by the file size.
+public class ZoneLoader
+{
+    public interface ProgressListener
+    {
+	void progress(String filename, long bytesLoaded, long bytesTotal);
+    }
+
+    private int              parallelism;
+    private int              chunkBytes;
+    private ProgressListener listener;
+
+    public static final int DefaultChunkBytes = 4 * 1024 * 1024;
+
+    public ZoneLoader()
+    {
+	this(Runtime.getRuntime().availableProcessors(), DefaultChunkBytes, null);
+    }
+
+    public ZoneLoader(int parallelism, int chunkBytes, ProgressListener listener)
+    {
+	this.parallelism = Math.max(1, parallelism);
+	this.chunkBytes  = Math.max(1024, chunkBytes);
+	this.listener    = listener;
+    }
+
+    public DomainTree loadDomains(String filename) throws IOException
+    {
+	DomainTree root = new DomainTree();
+	load(filename, DomainChunk::new, (chunk) ->
+	{
+	    for(String[] labels : ((DomainChunk) chunk).names)
+	    {
+		DomainTree cursor = root;
+		for(String label : labels)
+		{
+		    DomainTree subtree = cursor.findSubtree(label);
+		    if(subtree != null)
+			cursor = subtree;
+		    else
+			cursor = cursor.addDomain(label);
+		}
+	    }
+	});
+	return root;
+    }
+
+    public void loadRecords(DomainTree root, String filename) throws IOException
+    {
+	String[] lastOwner = { "" };  // carried across chunks, records are merged in file order
+	load(filename, RecordChunk::new, (chunk) ->
+	{
+	    for(ParsedRecord parsed : ((RecordChunk) chunk).records)
+	    {
+		String owner = parsed.owner;
+		if(owner == null)
+		    owner = lastOwner[0];
+		else
+		    lastOwner[0] = owner;
+		root.addResourceRecord(parsed.where,
+				       new ResourceRecord(owner, parsed.type,
+							  parsed.timeToLive, parsed.rdata));
+	    }
+	});
+    }
+
+    private interface ChunkFactory
+    {
+	Chunk create(byte[] bytes, int length);
+    }
+
+    private interface ChunkMerger
+    {
+	void merge(Chunk chunk);
+    }
+
+    private void load(String filename, ChunkFactory factory, ChunkMerger merger)
+	throws IOException
+    {
+	ExecutorService parsers = Executors.newFixedThreadPool(parallelism, (task) ->
+	{
+	    Thread thread = new Thread(task, "dotoip-zone-parser");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+
+	try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ))
+	{
+	    long size     = channel.size();
+	    long position = 0;
+	    long loaded   = 0;
+
+	    ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+	    while(position < size || !pending.isEmpty())
+	    {
+		// Keep every parser busy with one chunk and one queued behind it
+		while(position < size && pending.size() < 2 * parallelism)
+		{
+		    long end = chunkEnd(channel, position, size);
+		    pending.add(parsers.submit(readChunk(channel, position, end, factory)));
+		    position = end;
+		}
+
+		Chunk chunk = await(pending.poll());
+		merger.merge(chunk);
+
+		loaded += chunk.length;
+		if(listener != null)
+		    listener.progress(filename, loaded, size);
+	    }
+	}
+	finally
+	{
+	    parsers.shutdownNow();
+	}
+    }
+
+    private static Callable<Chunk> readChunk(FileChannel channel, long start, long end,
+					     ChunkFactory factory)
+    {
+	return () ->
+	{
+	    int length   = (int) (end - start);
+	    byte[] bytes = new byte[length];
+	    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+	    while(buffer.hasRemaining())
+	    {
+		if(channel.read(buffer, start + buffer.position()) < 0)
+		    break;
+	    }
+	    return factory.create(bytes, length);
+	};
+    }
+
+    // First position after the newline that follows start + chunkBytes
+    private long chunkEnd(FileChannel channel, long start, long size) throws IOException
+    {
+	long position = start + chunkBytes;
+	if(position >= size)
+	    return size;
+
+	ByteBuffer window = ByteBuffer.allocate(4096);
+	while(position < size)
+	{
+	    window.clear();
+	    int read = channel.read(window, position);
+	    if(read <= 0)
+		break;
+	    for(int i = 0; i < read; i++)
+	    {
+		if(window.get(i) == '\n')
+		    return position + i + 1;
+	    }
+	    position += read;
+	}
+	return size;
+    }
+
+    private static Chunk await(Future<Chunk> future) throws IOException
+    {
+	try
+	{
+	    return future.get();
+	}
+	catch(InterruptedException ie)
+	{
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted while loading", ie);
+	}
+	catch(ExecutionException ee)
+	{
+	    Throwable cause = ee.getCause();
+	    if(cause instanceof IOException)
+		throw (IOException) cause;
+	    if(cause instanceof RuntimeException)
+		throw (RuntimeException) cause;
+	    throw new IOException(cause);
+	}
+    }
+
+    private static String decode(byte[] bytes, int start, int end)
+    {
+	return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static class Chunk
+    {
+	int length;
+
+	Chunk(int length)
+	{
+	    this.length = length;
+	}
+    }
+
+    // domain-db: one dotted name per line, root-most label first
+    private static class DomainChunk extends Chunk
+    {
+	ArrayList<String[]> names = new ArrayList<>();
+
+	DomainChunk(byte[] bytes, int length)
+	{
+	    super(length);
+
+	    ArrayList<String> labels = new ArrayList<>();
+	    int lineStart = 0;
+	    while(lineStart < length)
+	    {
+		int lineEnd = lineStart;
+		while(lineEnd < length && bytes[lineEnd] != '\n')
+		    lineEnd++;
+		int next = lineEnd + 1;
+		if(lineEnd > lineStart && bytes[lineEnd - 1] == '\r')
+		    lineEnd--;
+
+		// Same labels String.split("\\.") gives: empty labels are kept
+		// except trailing ones, blank lines are skipped
+		labels.clear();
+		int labelStart = lineStart;
+		for(int i = lineStart; i <= lineEnd; i++)
+		{
+		    if(i == lineEnd || bytes[i] == '.')
+		    {
+			labels.add(decode(bytes, labelStart, i));
+			labelStart = i + 1;
+		    }
+		}
+		while(!labels.isEmpty() && labels.get(labels.size() - 1).isEmpty())
+		    labels.remove(labels.size() - 1);
+		if(!labels.isEmpty())
+		    names.add(labels.toArray(new String[labels.size()]));
+
+		lineStart = next;
+	    }
+	}
+    }
+
+    private static class ParsedRecord
+    {
+	String              where;       // node holding the record
+	String              owner;       // null when the line inherits the previous owner
+	int                 timeToLive;
+	ResourceRecord.Type type;
+	String              rdata;
+    }
+
+    // rr-db: whitespace separated fields, either
+    //   where owner TTL TYPE CLASS RDATA
+    // or, reusing the owner of the previous full line,
+    //   where TTL TYPE CLASS RDATA
+    // Any other line is ignored.
+    private static class RecordChunk extends Chunk
+    {
+	ArrayList<ParsedRecord> records = new ArrayList<>();
+
+	private static final int MaxTokens = 7;  // one past the longest valid line
+
+	RecordChunk(byte[] bytes, int length)
+	{
+	    super(length);
+
+	    int[] tokenStart = new int[MaxTokens];
+	    int[] tokenEnd   = new int[MaxTokens];
+
+	    int i = 0;
+	    while(i < length)
+	    {
+		int tokens = 0;
+		while(i < length && bytes[i] != '\n')
+		{
+		    if(isBlank(bytes[i]))
+		    {
+			i++;
+			continue;
+		    }
+		    int start = i;
+		    while(i < length && bytes[i] != '\n' && !isBlank(bytes[i]))
+			i++;
+		    if(tokens < MaxTokens)
+		    {
+			tokenStart[tokens] = start;
+			tokenEnd[tokens]   = i;
+		    }
+		    tokens++;
+		}
+		i++;  // past the newline
+
+		if(tokens != 5 && tokens != 6)
+		    continue;
+
+		int field = 0;
+		ParsedRecord parsed = new ParsedRecord();
+		parsed.where = decode(bytes, tokenStart[field], tokenEnd[field]);
+		field++;
+		if(tokens == 6)
+		{
+		    parsed.owner = decode(bytes, tokenStart[field], tokenEnd[field]);
+		    field++;
+		}
+		parsed.timeToLive = parseInt(bytes, tokenStart[field], tokenEnd[field]);
+		field++;
+		parsed.type  = ResourceRecord.Type.fromString(decode(bytes, tokenStart[field],
+								     tokenEnd[field]));
+		field += 2;  // the class is always IN
+		parsed.rdata = decode(bytes, tokenStart[field], tokenEnd[field]);
+
+		records.add(parsed);
+	    }
+	}
+
+	private static boolean isBlank(byte b)
+	{
+	    return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	private static int parseInt(byte[] bytes, int start, int end)
+	{
+	    int     i        = start;
+	    boolean negative = false;
+	    if(i < end && (bytes[i] == '-' || bytes[i] == '+'))
+		negative = bytes[i++] == '-';
+	    if(i == end)
+		throw new NumberFormatException("For input string: \"" + decode(bytes, start, end) + "\"");
+
+	    long value = 0;
+	    for(; i < end; i++)
+	    {
+		int digit = bytes[i] - '0';
+		if(digit < 0 || digit > 9)
+		    throw new NumberFormatException("For input string: \"" + decode(bytes, start, end) + "\"");
+		value = value * 10 + digit;
+		if(value > Integer.MAX_VALUE + 1L)
+		    throw new NumberFormatException("For input string: \"" + decode(bytes, start, end) + "\"");
+	    }
+	    if(negative)
+		value = -value;
+	    if(value > Integer.MAX_VALUE)
+		throw new NumberFormatException("For input string: \"" + decode(bytes, start, end) + "\"");
+	    return (int) value;
+	}
+    }
+}
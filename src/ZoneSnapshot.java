@@ -0,0 +1,264 @@
+package src;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// Binary image of a fully loaded DomainTree, so a restart does not have to
+// re-parse the text databases. The text files stay the source of truth: a
+// snapshot remembers the size and modification time of the files it was
+// built from and is ignored (and rebuilt) as soon as they change.
+//
+// Layout, big endian:
+//   header   magic, version, 4 x long source stamp, long CRC32 of the payload
+//   strings  count, then (length, UTF-8 bytes) for every distinct label,
+//            owner and rdata; everything below refers to them by index
+//   nodes    count, then (labelId, parentIndex, recordCount) in preorder,
+//            so a parent always comes before its children and siblings keep
+//            their insertion order
+//   records  (ownerId, type, timeToLive, rdataId) for each node in turn
+public class ZoneSnapshot
+{
+    private static final int Magic   = 0x44545a53;  // "DTZS"
+    private static final int Version = 1;
+
+    private static final int StampOffset  = 8;
+    private static final int CrcOffset    = StampOffset + 4 * 8;
+    private static final int PayloadStart = CrcOffset + 8;
+
+    // Loads the snapshot if it matches the text files, otherwise parses them
+    // and writes a fresh snapshot for the next start
+    public static DomainTree loadOrBuild(String domainDb, String recordDb,
+					 String snapshotPath) throws IOException
+    {
+	long[] stamp = sourceStamp(domainDb, recordDb);
+
+	DomainTree tree = load(snapshotPath, stamp);
+	if(tree != null)
+	    return tree;
+
+	tree = DomainTree.fromFile(domainDb);
+	tree.loadResourceRecords(recordDb);
+	try
+	{
+	    save(tree, snapshotPath, stamp);
+	}
+	catch(IOException ie)
+	{
+	    // A snapshot is only a shortcut, failing to write one is not fatal
+	}
+	return tree;
+    }
+
+    public static long[] sourceStamp(String domainDb, String recordDb)
+    {
+	File domains = new File(domainDb);
+	File records = new File(recordDb);
+	return new long[] { domains.length(), domains.lastModified(),
+			    records.length(), records.lastModified() };
+    }
+
+    public static void save(DomainTree root, String snapshotPath, long[] stamp)
+	throws IOException
+    {
+	// Flatten the tree first: preorder nodes plus a table of distinct strings
+	ArrayList<DomainTree> nodes   = new ArrayList<>();
+	ArrayList<Integer>    parents = new ArrayList<>();
+	collect(root, -1, nodes, parents);
+
+	HashMap<String, Integer> ids     = new HashMap<>();
+	ArrayList<String>        strings = new ArrayList<>();
+	for(DomainTree node : nodes)
+	{
+	    idOf(node.label, ids, strings);
+	    for(ResourceRecord rr : node.getResourceRecords())
+	    {
+		idOf(rr.owner, ids, strings);
+		idOf(rr.rdata, ids, strings);
+	    }
+	}
+
+	Path target = Paths.get(snapshotPath);
+	Path temp   = Paths.get(snapshotPath + ".tmp");
+
+	CRC32 crc = new CRC32();
+	try(FileOutputStream file = new FileOutputStream(temp.toFile()))
+	{
+	    DataOutputStream header = new DataOutputStream(file);
+	    header.writeInt(Magic);
+	    header.writeInt(Version);
+	    for(long part : stamp)
+		header.writeLong(part);
+	    header.writeLong(0);  // CRC, patched once the payload is written
+	    header.flush();
+
+	    DataOutputStream out = new DataOutputStream(
+		new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16));
+
+	    out.writeInt(strings.size());
+	    for(String string : strings)
+	    {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	    }
+
+	    out.writeInt(nodes.size());
+	    for(int i = 0; i < nodes.size(); i++)
+	    {
+		DomainTree node = nodes.get(i);
+		out.writeInt(idOf(node.label, ids, strings));
+		out.writeInt(parents.get(i));
+		out.writeInt(node.getResourceRecords().size());
+	    }
+
+	    for(DomainTree node : nodes)
+	    {
+		for(ResourceRecord rr : node.getResourceRecords())
+		{
+		    out.writeInt(idOf(rr.owner, ids, strings));
+		    out.writeByte(rr.type.ordinal());
+		    out.writeInt(rr.timeToLive);
+		    out.writeInt(idOf(rr.rdata, ids, strings));
+		}
+	    }
+	    out.flush();
+	}
+
+	try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE))
+	{
+	    ByteBuffer value = ByteBuffer.allocate(8);
+	    value.putLong(crc.getValue());
+	    value.flip();
+	    channel.write(value, CrcOffset);
+	}
+	Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+		   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Returns null when the snapshot is missing, was built from other
+    // sources, or fails its checksum
+    public static DomainTree load(String snapshotPath, long[] stamp) throws IOException
+    {
+	Path path = Paths.get(snapshotPath);
+	if(!Files.isRegularFile(path))
+	    return null;
+
+	try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+	{
+	    if(channel.size() < PayloadStart)
+		return null;
+	    MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+	    if(map.getInt(0) != Magic || map.getInt(4) != Version)
+		return null;
+	    for(int i = 0; i < stamp.length; i++)
+	    {
+		if(map.getLong(StampOffset + 8 * i) != stamp[i])
+		    return null;
+	    }
+
+	    ByteBuffer payload = map.duplicate();
+	    payload.position(PayloadStart);
+	    CRC32 crc = new CRC32();
+	    crc.update(payload);
+	    if(crc.getValue() != map.getLong(CrcOffset))
+		return null;
+
+	    map.position(PayloadStart);
+	    return read(map);
+	}
+    }
+
+    private static DomainTree read(ByteBuffer in)
+    {
+	String[] strings = new String[in.getInt()];
+	byte[]   scratch = new byte[256];
+	for(int i = 0; i < strings.length; i++)
+	{
+	    int length = in.getInt();
+	    if(length > scratch.length)
+		scratch = new byte[Math.max(length, 2 * scratch.length)];
+	    in.get(scratch, 0, length);
+	    strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	int nodeCount = in.getInt();
+	DomainTree[] nodes   = new DomainTree[nodeCount];
+	int[]        records = new int[nodeCount];
+	for(int i = 0; i < nodeCount; i++)
+	{
+	    String label  = stringAt(strings, in.getInt());
+	    int    parent = in.getInt();
+	    records[i]    = in.getInt();
+	    nodes[i]      = (parent < 0) ? new DomainTree(label)
+					 : nodes[parent].addDomain(label);
+	}
+
+	ResourceRecord.Type[] types = ResourceRecord.Type.values();
+	ArrayList<ResourceRecord> rrs = new ArrayList<>();
+	for(int i = 0; i < nodeCount; i++)
+	{
+	    rrs.clear();
+	    for(int r = 0; r < records[i]; r++)
+	    {
+		String owner = stringAt(strings, in.getInt());
+		ResourceRecord.Type type = types[in.get()];
+		int    ttl   = in.getInt();
+		String rdata = stringAt(strings, in.getInt());
+		rrs.add(new ResourceRecord(owner, type, ttl, rdata));
+	    }
+	    if(!rrs.isEmpty())
+		nodes[i].addResourceRecords(rrs);
+	}
+	return nodeCount > 0 ? nodes[0] : new DomainTree();
+    }
+
+    private static void collect(DomainTree node, int parent,
+				List<DomainTree> nodes, List<Integer> parents)
+    {
+	int index = nodes.size();
+	nodes.add(node);
+	parents.add(parent);
+	for(DomainTree subtree : node.getSubtrees())
+	    collect(subtree, index, nodes, parents);
+    }
+
+    private static int idOf(String string, HashMap<String, Integer> ids,
+			    List<String> strings)
+    {
+	if(string == null)
+	    return -1;
+	Integer id = ids.get(string);
+	if(id == null)
+	{
+	    id = strings.size();
+	    ids.put(string, id);
+	    strings.add(string);
+	}
+	return id;
+    }
+
+    private static String stringAt(String[] strings, int id)
+    {
+	return (id < 0) ? null : strings[id];
+    }
+}
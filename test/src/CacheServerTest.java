@@ -0,0 +1,70 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class CacheServerTest
+{
+    @AfterEach
+    void restoreLogging()
+    {
+	LogSink.setEnabled(true);
+    }
+
+    // .a and .d alias .b, which aliases .c. The root only delegates .a and
+    // .d (to .x), .x holds the delegation of .b (to .y) and .y answers .c.
+    private static DomainTree aliasZone()
+    {
+	DomainTree root = new DomainTree();
+	DomainTree x    = root.addDomain("x");
+	DomainTree y    = root.addDomain("y");
+	root.addResourceRecords(List.of(
+	    new ResourceRecord(".a", ResourceRecord.Type.CNAME, 300, ".b"),
+	    new ResourceRecord(".d", ResourceRecord.Type.CNAME, 300, ".b"),
+	    new ResourceRecord(".a", ResourceRecord.Type.NS,    300, ".x"),
+	    new ResourceRecord(".d", ResourceRecord.Type.NS,    300, ".x")));
+	x.addResourceRecords(List.of(
+	    new ResourceRecord(".b", ResourceRecord.Type.NS,    300, ".y"),
+	    new ResourceRecord(".b", ResourceRecord.Type.CNAME, 300, ".c")));
+	y.addResourceRecords(List.of(
+	    new ResourceRecord(".c", ResourceRecord.Type.A,     300, "10.0.0.1"),
+	    new ResourceRecord(".c", ResourceRecord.Type.AAAA,  300, "::1")));
+	return root;
+    }
+
+    private static String address(CacheServer server, String name, RequestType what)
+    {
+	return server.queryAsync(name, what).join().rdata;
+    }
+
+    // The cached part of an alias chain must not hide the delegations
+    // hanging off its middle, whichever way the tree is walked
+    @Test
+    void cachedAliasesKeepTheirReferrals()
+    {
+	LogSink.setEnabled(true);  // hop by hop
+	aliasesThroughTheCache();
+    }
+
+    @Test
+    void cachedAliasesKeepTheirReferralsInOneWalk()
+    {
+	LogSink.setEnabled(false);  // DomainTree.resolve
+	aliasesThroughTheCache();
+    }
+
+    private static void aliasesThroughTheCache()
+    {
+	try(CacheServer server = new CacheServer(aliasZone()))
+	{
+	    assertEquals("10.0.0.1", address(server, ".a", RequestType.IPv4));
+	    assertEquals("::1",      address(server, ".d", RequestType.IPv6));
+	    assertEquals("::1",      address(server, ".a", RequestType.IPv6));
+	    assertEquals(0, server.getNegativeCacheSize());
+	}
+    }
+}
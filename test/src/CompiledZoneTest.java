@@ -0,0 +1,51 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class CompiledZoneTest
+{
+    private static DomainTree zone()
+    {
+	DomainTree root = new DomainTree();
+	DomainTree amazon = root.addDomain("com").addDomain("amazon");
+	amazon.addDomain("www");
+	amazon.addResourceRecords(List.of(
+	    new ResourceRecord(".com.amazon.www", ResourceRecord.Type.A, 0, "192.168.1.100")));
+	return root;
+    }
+
+    @Test
+    void queryTakesAnySpellingOfTheName()
+    {
+	DomainTree   tree     = zone();
+	CompiledZone compiled = CompiledZone.compile(tree);
+	int          amazon   = compiled.findNode(".com.amazon");
+
+	for(String name : new String[] {".com.amazon.www", "com.amazon.www", ".COM.Amazon.www."})
+	{
+	    Message question = new Message();
+	    question.question.name = name;
+	    question.question.type = ResourceRecord.Type.A;
+
+	    Message expected = tree.getSubtree(".com.amazon").query(question);
+	    Message actual   = compiled.query(amazon, question);
+	    assertEquals(1, expected.answers.size(), name);
+	    assertEquals(expected.answers.toString(), actual.answers.toString(), name);
+	}
+    }
+
+    @Test
+    void findNodeTakesAnySpellingOfTheName()
+    {
+	CompiledZone compiled = CompiledZone.compile(zone());
+	int          www      = compiled.findNode(".com.amazon.www");
+
+	assertEquals(www, compiled.findNode("com.amazon.www"));
+	assertEquals(www, compiled.findNode(".COM.Amazon.www."));
+	assertEquals(-1, compiled.findNode(".com.amazon.mail"));
+    }
+}
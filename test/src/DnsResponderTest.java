@@ -0,0 +1,99 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class DnsResponderTest
+{
+    @AfterEach
+    void restoreLogging()
+    {
+	LogSink.setEnabled(true);
+    }
+
+    // .a and .d alias .b, which aliases .c, the owner of the address. Each
+    // hop is held by the server the previous one delegates to.
+    private static DomainTree aliasZone()
+    {
+	DomainTree root = new DomainTree();
+	DomainTree x    = root.addDomain("x");
+	DomainTree y    = root.addDomain("y");
+	root.addResourceRecords(List.of(
+	    new ResourceRecord(".a", ResourceRecord.Type.CNAME, 300, ".b"),
+	    new ResourceRecord(".d", ResourceRecord.Type.CNAME, 300, ".b"),
+	    new ResourceRecord(".a", ResourceRecord.Type.NS,    300, ".x"),
+	    new ResourceRecord(".d", ResourceRecord.Type.NS,    300, ".x"),
+	    new ResourceRecord(".c", ResourceRecord.Type.NS,    300, ".y")));
+	x.addResourceRecords(List.of(
+	    new ResourceRecord(".b", ResourceRecord.Type.NS,    300, ".y"),
+	    new ResourceRecord(".b", ResourceRecord.Type.CNAME, 300, ".c")));
+	y.addResourceRecords(List.of(
+	    new ResourceRecord(".c", ResourceRecord.Type.A,     300, "10.0.0.1")));
+	return root;
+    }
+
+    // The response to an A query for 'name', as "owner type rdata" lines
+    private static List<String> ask(DnsResponder responder, String name)
+    {
+	Message query = new Message();
+	query.header.method = Message.QueryMethod.RECURSIVE;
+	query.question.name = name;
+	query.question.type = ResourceRecord.Type.A;
+	ByteBuffer in = ByteBuffer.allocate(UdpServer.MaxUdpPayload);
+	new MessageCodec().encode(query, in, UdpServer.MaxUdpPayload);
+	in.flip();
+
+	ByteBuffer out = ByteBuffer.allocate(UdpServer.MaxUdpPayload);
+	if(responder.answer(in, out, UdpServer.MaxUdpPayload) == DnsResponder.Pending)
+	{
+	    CompletableFuture<Message> later = new CompletableFuture<>();
+	    responder.completeLater(later::complete);
+	    DnsResponder.encode(later.join(), out, UdpServer.MaxUdpPayload);
+	}
+	out.flip();
+
+	Message response = new Message();
+	new MessageCodec().decode(out, response);
+	ArrayList<String> answers = new ArrayList<>();
+	for(ResourceRecord rr : response.answers)
+	    answers.add(rr.owner + " " + rr.type + " " + rr.rdata);
+	return answers;
+    }
+
+    @Test
+    void aliasChainComesFirst()
+    {
+	LogSink.setEnabled(true);  // hop by hop
+	answersThroughAliases();
+    }
+
+    @Test
+    void aliasChainComesFirstInOneWalk()
+    {
+	LogSink.setEnabled(false);  // DomainTree.resolve
+	answersThroughAliases();
+    }
+
+    private static void answersThroughAliases()
+    {
+	try(CacheServer server = new CacheServer(aliasZone()))
+	{
+	    DnsResponder responder = new DnsResponder(server);
+	    List<String> fromA = List.of(".a CNAME .b", ".b CNAME .c", ".c A 10.0.0.1");
+	    assertEquals(fromA, ask(responder, ".a"));  // walked
+	    assertEquals(fromA, ask(responder, ".a"));  // encoded from the cache
+	    assertEquals(fromA, ask(responder, ".a"));  // copied from the response cache
+
+	    // .b -> .c is taken from the alias cache this time
+	    assertEquals(List.of(".d CNAME .b", ".b CNAME .c", ".c A 10.0.0.1"), ask(responder, ".d"));
+	    assertEquals(List.of(".c A 10.0.0.1"), ask(responder, ".c"));
+	}
+    }
+}